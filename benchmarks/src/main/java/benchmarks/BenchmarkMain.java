@@ -0,0 +1,25 @@
+package benchmarks;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// The JMH command line, writing results as JSON to benchmarks/target/jmh-result.json
+// unless another result format or file is given, so runs can be compared over time.
+//   java -jar benchmarks/target/benchmarks.jar SearchBenchmark -p songs=10000
+public final class BenchmarkMain {
+
+    private BenchmarkMain() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        List<String> options = new ArrayList<>(Arrays.asList(args));
+        if (!options.contains("-rf")) {
+            options.addAll(List.of("-rf", "json"));
+        }
+        if (!options.contains("-rff")) {
+            options.addAll(List.of("-rff", "benchmarks/target/jmh-result.json"));
+        }
+        org.openjdk.jmh.Main.main(options.toArray(new String[0]));
+    }
+}
@@ -0,0 +1,198 @@
+package benchmarks;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+// Streams csvs of any number of songs that look like the bundled one to the indexer: learned from it are
+//  - artists: the real ones most popular first, then made-up names from the words of real names,
+//    with a Zipfian number of songs each
+//  - titles and lyric lines: a Markov chain over the words of each, lyric line counts as in the source
+// Memory stays flat in the number of songs apart from 8 to 16 bytes per song that keep (artist, title)
+// unique, so every row is a distinct song to the indexer.
+//   CorpusGenerator <sourceCsv> <outputCsv> <songs> [seed]
+public class CorpusGenerator {
+
+    private static final String LINE_BREAK = "   ";  // how the bundled lyrics separate lines
+    private static final int SONGS_PER_ARTIST = 25;
+    private static final double ARTIST_POPULARITY_EXPONENT = 0.9;
+    private static final int MAX_TITLE_WORDS = 12;
+    private static final int MAX_LINE_WORDS = 30;
+
+    private final List<String> sourceArtists = new ArrayList<>();
+    private final List<String> firstNameWords = new ArrayList<>();
+    private final List<String> lastNameWords = new ArrayList<>();
+    private final MarkovText titles = new MarkovText();
+    private final MarkovText lines = new MarkovText();
+    private final List<Integer> lineCounts = new ArrayList<>();
+
+    public CorpusGenerator(List<String[]> rows) {
+        Map<String, Integer> artistSongs = new LinkedHashMap<>();
+        for (String[] row : rows) {
+            artistSongs.merge(row[0], 1, Integer::sum);
+            titles.learn(words(row[1]));
+            String[] lyricLines = row[2].split(LINE_BREAK, -1);
+            for (String line : lyricLines) {
+                lines.learn(words(line));  // empty lines between stanzas are learned as empty sequences
+            }
+            lineCounts.add(lyricLines.length);
+        }
+        artistSongs.entrySet().stream()
+                .sorted(Map.Entry.<String, Integer>comparingByValue().reversed())
+                .forEach(entry -> sourceArtists.add(entry.getKey()));
+        for (String artist : sourceArtists) {
+            String[] names = words(artist);
+            if (names.length > 1) {
+                firstNameWords.add(names[0]);
+                lastNameWords.add(names[names.length - 1]);
+            }
+        }
+    }
+
+    private static String[] words(String text) {
+        String trimmed = text.strip();
+        return trimmed.isEmpty() ? new String[0] : trimmed.split("\\s+");
+    }
+
+    // Name of the artist of this popularity rank
+    String artist(int rank) {
+        if (rank < sourceArtists.size()) {
+            return sourceArtists.get(rank);
+        }
+        int made = rank - sourceArtists.size();
+        int firsts = firstNameWords.size(), lasts = lastNameWords.size();
+        String name = firstNameWords.get(made % firsts) + " " + lastNameWords.get(made / firsts % lasts);
+        int round = made / (firsts * lasts);
+        return round == 0 ? name : name + " " + (round + 1);
+    }
+
+    public void generate(Path output, long songs, long seed) throws IOException {
+        SplittableRandom random = new SplittableRandom(seed);
+        int artistCount = (int) Math.min(Integer.MAX_VALUE - 8, Math.max(sourceArtists.size(), songs / SONGS_PER_ARTIST));
+        ZipfDistribution artistPopularity = new ZipfDistribution(artistCount, ARTIST_POPULARITY_EXPONENT);
+        LongSet used = new LongSet(songs);
+        Map<Integer, String> artistNames = new HashMap<>();
+        StringBuilder title = new StringBuilder();
+        StringBuilder lyrics = new StringBuilder();
+
+        long start = System.nanoTime();
+        try (Writer out = new BufferedWriter(Files.newBufferedWriter(output, StandardCharsets.UTF_8), 1 << 20)) {
+            out.write("Artist,Song,Lyrics\n");
+            for (long i = 0; i < songs; i++) {
+                int rank = artistPopularity.sample(random);
+                String artist = rank < 4096 ? artistNames.computeIfAbsent(rank, this::artist) : artist(rank);
+
+                // another title if the artist already has this one, numbered if that keeps happening
+                long key;
+                int attempt = 0;
+                do {
+                    title.setLength(0);
+                    while (titles.generate(random, MAX_TITLE_WORDS, title) == 0) {
+                        title.setLength(0);
+                    }
+                    if (++attempt > 8) {
+                        title.append(" (").append(i).append(')');
+                    }
+                    key = key(rank, title);
+                } while (!used.add(key));
+
+                lyrics.setLength(0);
+                int lineCount = lineCounts.get(random.nextInt(lineCounts.size()));
+                for (int line = 0; line < lineCount; line++) {
+                    if (line > 0) {
+                        lyrics.append(LINE_BREAK);
+                    }
+                    lines.generate(random, MAX_LINE_WORDS, lyrics);
+                }
+
+                writeField(out, artist);
+                out.write(',');
+                writeField(out, title);
+                out.write(',');
+                writeField(out, lyrics);
+                out.write('\n');
+            }
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("Generated %d songs by up to %d artists in %.2f s (%.1f MB)%n",
+                songs, artistCount, seconds, Files.size(output) / (1024.0 * 1024.0));
+    }
+
+    // 64-bit FNV-1a of the artist rank and title
+    private static long key(int artistRank, CharSequence title) {
+        long h = (0xcbf29ce484222325L ^ artistRank) * 0x100000001b3L;
+        for (int i = 0; i < title.length(); i++) {
+            h = (h ^ title.charAt(i)) * 0x100000001b3L;
+        }
+        return h;
+    }
+
+    // Quoted only when needed, as in the bundled csv
+    private static void writeField(Writer out, CharSequence value) throws IOException {
+        boolean quote = false;
+        for (int i = 0; i < value.length() && !quote; i++) {
+            char c = value.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            out.append(value);
+            return;
+        }
+        out.write('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"') {
+                out.write('"');
+            }
+            out.write(c);
+        }
+        out.write('"');
+    }
+
+    // Open-addressing set of longs, 0 stands for an empty slot
+    private static final class LongSet {
+        private final long[] slots;
+        private final int mask;
+
+        LongSet(long expected) {
+            int capacity = Integer.highestOneBit((int) Math.min(1 << 30, Math.max(16, expected * 4 / 3)) - 1) << 1;
+            slots = new long[capacity];
+            mask = capacity - 1;
+        }
+
+        boolean add(long value) {
+            if (value == 0) {
+                value = 1;
+            }
+            int i = (int) (value ^ (value >>> 32)) & mask;
+            while (slots[i] != 0) {
+                if (slots[i] == value) {
+                    return false;
+                }
+                i = (i + 1) & mask;
+            }
+            slots[i] = value;
+            return true;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 3) {
+            System.err.println("Usage: CorpusGenerator <sourceCsv> <outputCsv> <songs> [seed]");
+            System.exit(1);
+        }
+        CorpusGenerator generator = new CorpusGenerator(Fixtures.sourceRows(Paths.get(args[0])));
+        long seed = args.length > 3 ? Long.parseLong(args[3]) : 42;
+        generator.generate(Paths.get(args[1]), Long.parseLong(args[2]), seed);
+    }
+}
@@ -0,0 +1,125 @@
+package benchmarks;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import indexDocuments.CsvReader;
+import indexDocuments.IndexCreation;
+import indexDocuments.IndexCreationConfig;
+
+// Corpora and indexes the benchmarks run against, generated from the bundled csv on first use and kept
+// between runs. A corpus of n songs repeats the bundled rows, numbering the titles of every repetition
+// so each row stays a distinct song. Paths are relative to the repository root, where benchmarks are run:
+//   -Dbenchmark.csv       source csv (inputFiles/spotify_1000_songs_.csv)
+//   -Dbenchmark.fixtures  where corpora and indexes are kept (benchmarks/target/fixtures)
+final class Fixtures {
+
+    // Words common in titles and lyrics, and a few artists, searched in turn
+    static final String[] QUERIES = {
+        "love", "heart", "night", "baby", "time", "dance", "rain", "fire", "home", "dream",
+        "girl", "world", "light", "blue", "christmas", "love me", "hold on", "abba", "elvis", "queen",
+    };
+
+    private static final Path SOURCE = Paths.get(System.getProperty("benchmark.csv", "inputFiles/spotify_1000_songs_.csv"));
+    private static final Path ROOT = Paths.get(System.getProperty("benchmark.fixtures", "benchmarks/target/fixtures"));
+
+    private Fixtures() {
+    }
+
+    // Rows of the bundled csv: artist, song, lyrics
+    static List<String[]> sourceRows() throws IOException {
+        return sourceRows(SOURCE);
+    }
+
+    static List<String[]> sourceRows(Path csv) throws IOException {
+        List<String[]> rows = new ArrayList<>();
+        try (CsvReader reader = new CsvReader(csv)) {
+            reader.next();  // column names
+            while (reader.next()) {
+                if (reader.fieldCount() >= 3) {
+                    rows.add(new String[] { reader.fieldAsString(0), reader.fieldAsString(1), reader.fieldAsString(2) });
+                }
+            }
+        }
+        return rows;
+    }
+
+    // Csv of exactly this many songs
+    static synchronized Path corpus(int songs) throws IOException {
+        Path csv = ROOT.resolve("songs-" + songs + ".csv");
+        if (Files.exists(csv)) {
+            return csv;
+        }
+        Files.createDirectories(ROOT);
+        List<String[]> rows = sourceRows();
+        Path partial = Files.createTempFile(ROOT, "songs-" + songs, ".partial");
+        try (Writer out = new BufferedWriter(Files.newBufferedWriter(partial, StandardCharsets.UTF_8), 1 << 16)) {
+            out.write("Artist,Song,Lyrics\n");
+            for (int i = 0; i < songs; i++) {
+                String[] row = rows.get(i % rows.size());
+                int repetition = i / rows.size();
+                writeField(out, row[0]);
+                out.write(',');
+                writeField(out, repetition == 0 ? row[1] : row[1] + " (" + repetition + ")");
+                out.write(',');
+                writeField(out, row[2]);
+                out.write('\n');
+            }
+        }
+        Files.move(partial, csv, StandardCopyOption.ATOMIC_MOVE);
+        return csv;
+    }
+
+    // Index of the corpus, laid out as the application builds it: alphabetically sorted. One kept from an earlier
+    // run is rebuilt unless it holds this corpus as it is now, with the same schema, sort and shards.
+    static synchronized Path index(int songs) throws IOException {
+        Path path = ROOT.resolve("index-" + songs);
+        String csv = corpus(songs).toString();
+        IndexCreationConfig settings = new IndexCreationConfig()
+                .setIndexSorted(true)
+                .setThreads(Runtime.getRuntime().availableProcessors());
+        if (IndexCreation.status(csv, path.toString(), settings) != IndexCreation.Status.UP_TO_DATE) {
+            new IndexCreation(csv, path.toString(), settings);
+        }
+        return path;
+    }
+
+    static void writeField(Writer out, String value) throws IOException {
+        out.write('"');
+        out.write(value.replace("\"", "\"\""));
+        out.write('"');
+    }
+
+    static Path createTempDirectory(String prefix) throws IOException {
+        Files.createDirectories(ROOT);
+        return Files.createTempDirectory(ROOT, prefix);
+    }
+
+    static void delete(Path path) {
+        if (path == null || !Files.exists(path)) {
+            return;
+        }
+        try (Stream<Path> files = Files.walk(path)) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> {
+                try {
+                    Files.delete(file);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
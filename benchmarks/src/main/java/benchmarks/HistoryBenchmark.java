@@ -0,0 +1,75 @@
+package benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import searchDocuments.QueryHistory;
+
+// Recording queries and completing prefixes, over a history seeded with the titles of the bundled songs
+// searched the given number of times in total
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HistoryBenchmark {
+
+    @Param({"1000", "100000"})
+    int recordedQueries;
+
+    private Path directory;
+    private QueryHistory history;
+    private String[] queries;
+    private String[] prefixes;
+    private int next;
+
+    @Setup
+    public void open() throws IOException {
+        List<String[]> rows = Fixtures.sourceRows();
+        queries = new String[rows.size()];
+        prefixes = new String[rows.size()];
+        for (int i = 0; i < rows.size(); i++) {
+            queries[i] = rows.get(i)[1];
+            prefixes[i] = queries[i].substring(0, Math.min(1 + i % 3, queries[i].length()));
+        }
+        directory = Fixtures.createTempDirectory("history-");
+        history = new QueryHistory(directory.toString());
+        for (int i = 0; i < recordedQueries; i++) {
+            // skewed towards the first titles, so some queries are far more popular than others
+            history.addQueryToHistory(queries[(int) ((long) i * i % queries.length)]);
+        }
+        history.flush();
+    }
+
+    @TearDown
+    public void close() throws IOException {
+        history.close();
+        Fixtures.delete(directory);
+    }
+
+    @Benchmark
+    public void addQueryToHistory() {
+        history.addQueryToHistory(queries[next++ % queries.length]);
+    }
+
+    @Benchmark
+    public List<String> getQueriesSuggestions() throws IOException {
+        return history.getQueriesSuggestions(prefixes[next++ % prefixes.length]);
+    }
+}
@@ -0,0 +1,63 @@
+package benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import indexDocuments.IndexCreation;
+import indexDocuments.IndexCreationConfig;
+
+// Time to build a whole index from a csv, written to disk and committed.
+// One thread takes the buildIndex path, more take buildIndexParallel. Rows per second is songs / score.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class IndexingBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    int songs;
+
+    @Param({"1", "4"})
+    int threads;
+
+    @Param({"false", "true"})
+    boolean sorted;
+
+    private Path csv;
+    private Path index;
+
+    @Setup
+    public void createCorpus() throws IOException {
+        csv = Fixtures.corpus(songs);
+        index = Fixtures.createTempDirectory("indexing-");
+    }
+
+    @TearDown
+    public void deleteIndex() {
+        Fixtures.delete(index);
+    }
+
+    // Every run creates the index anew over the previous one
+    @Benchmark
+    public IndexCreation buildIndex() throws IOException {
+        return new IndexCreation(csv.toString(), index.toString(), new IndexCreationConfig()
+                .setThreads(threads)
+                .setIndexSorted(sorted));
+    }
+}
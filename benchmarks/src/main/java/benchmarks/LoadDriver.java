@@ -0,0 +1,221 @@
+package benchmarks;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.MultiReader;
+import org.apache.lucene.index.MultiTerms;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.queryparser.classic.QueryParserBase;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.IOUtils;
+import org.apache.lucene.util.PriorityQueue;
+
+import indexDocuments.FieldSchema;
+import indexDocuments.IndexLayout;
+import searchDocuments.DocumentsSearcher;
+import searchDocuments.DocumentsSearcherConfig;
+
+// Closed-loop load on one shared DocumentsSearcher: each client thread searches, waits for its page
+// and searches again, with 1, 2, 4, ... up to maxThreads clients in turn. Queries are the most common
+// terms of the index, picked Zipfian by how common they are, so a few queries dominate as in real traffic
+// and the result cache sees the repeats it would. Some users go on to the next page of their results.
+//   LoadDriver <indexPath> [maxThreads] [secondsPerLevel] [zipfExponent]
+public class LoadDriver {
+
+    private static final int QUERY_TERMS = 10_000;
+    private static final double PAGING_RATE = 0.1;         // searches followed by a request for the next page
+    private static final double ALPHABETICAL_RATE = 0.1;   // searches sorted alphabetically
+    private static final String[][] FIELD_COMBINATIONS = {
+        {}, {}, {}, {}, {}, {}, {FieldSchema.ARTIST}, {FieldSchema.SONG}, {FieldSchema.LYRICS}, {FieldSchema.ARTIST, FieldSchema.SONG},
+    };  // most users search every field
+
+    private final DocumentsSearcher searcher;
+    private final String[] queries;
+    private final ZipfDistribution popularity;
+
+    public LoadDriver(DocumentsSearcher searcher, String[] queries, double zipfExponent) {
+        this.searcher = searcher;
+        this.queries = queries;
+        this.popularity = new ZipfDistribution(queries.length, zipfExponent);
+    }
+
+    // The terms in the most documents over the searchable text fields, most common first, escaped as queries.
+    // The songs of a sharded index are in its shards, the index directory only records how many there are.
+    static String[] commonTerms(String indexPath, int count) throws IOException {
+        PriorityQueue<Object[]> top = new PriorityQueue<>(count) {
+            @Override
+            protected boolean lessThan(Object[] a, Object[] b) {
+                return (int) a[1] < (int) b[1];
+            }
+        };
+        List<Closeable> opened = new ArrayList<>();
+        try {
+            Path root = Paths.get(indexPath);
+            Directory directory = FSDirectory.open(root);
+            opened.add(directory);
+            DirectoryReader rootReader = DirectoryReader.open(directory);
+            opened.add(rootReader);
+            List<IndexReader> readers = new ArrayList<>(List.of(rootReader));
+            for (Path shardPath : IndexLayout.shardPaths(root, rootReader.getIndexCommit().getUserData())) {
+                Directory shard = FSDirectory.open(shardPath);
+                opened.add(shard);
+                DirectoryReader shardReader = DirectoryReader.open(shard);
+                opened.add(shardReader);
+                readers.add(shardReader);
+            }
+            IndexReader reader = new MultiReader(readers.toArray(new IndexReader[0]), false);
+            for (String field : List.of(FieldSchema.ARTIST, FieldSchema.SONG, FieldSchema.LYRICS)) {
+                Terms terms = MultiTerms.getTerms(reader, field);
+                if (terms == null) {
+                    continue;
+                }
+                TermsEnum termsEnum = terms.iterator();
+                for (BytesRef term = termsEnum.next(); term != null; term = termsEnum.next()) {
+                    top.insertWithOverflow(new Object[] { QueryParserBase.escape(term.utf8ToString()), termsEnum.docFreq() });
+                }
+            }
+        } finally {
+            Collections.reverse(opened);  // the readers before their directories
+            IOUtils.close(opened);
+        }
+        if (top.size() == 0) {
+            throw new IllegalArgumentException("No terms to search for in the index at " + indexPath);
+        }
+        String[] terms = new String[top.size()];
+        for (int i = terms.length - 1; i >= 0; i--) {
+            terms[i] = (String) top.pop()[0];
+        }
+        return terms;
+    }
+
+    // Latencies of one concurrency level, in nanoseconds
+    static final class Level {
+        final int threads;
+        final double seconds;
+        final long[] latencies;
+        final long errors;
+
+        Level(int threads, double seconds, long[] latencies, long errors) {
+            this.threads = threads;
+            this.seconds = seconds;
+            this.latencies = latencies;
+            this.errors = errors;
+        }
+
+        double throughput() {
+            return latencies.length / seconds;
+        }
+
+        double percentileMillis(double percentile) {
+            if (latencies.length == 0) {
+                return 0;
+            }
+            int index = (int) Math.ceil(percentile / 100 * latencies.length) - 1;
+            return latencies[Math.max(0, Math.min(index, latencies.length - 1))] / 1e6;
+        }
+    }
+
+    // Runs the clients for warmup and then measurement, only the measured searches are kept
+    public Level run(int threads, double warmupSeconds, double seconds) throws InterruptedException {
+        long warmupEnd = System.nanoTime() + (long) (warmupSeconds * 1e9);
+        long end = warmupEnd + (long) (seconds * 1e9);
+        long[][] latencies = new long[threads][];  // each client fills its own, read after the latch
+        int[] counts = new int[threads];
+        AtomicLong errors = new AtomicLong();
+        CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            int client = t;
+            Thread thread = new Thread(() -> {
+                SplittableRandom random = new SplittableRandom(client * 0x9E3779B97F4A7C15L + threads);
+                long[] recorded = new long[1024];
+                int count = 0;
+                try {
+                    for (long start = System.nanoTime(); start < end; start = System.nanoTime()) {
+                        try {
+                            act(random);
+                        } catch (Exception e) {
+                            errors.incrementAndGet();
+                            continue;
+                        }
+                        if (start >= warmupEnd) {
+                            if (count == recorded.length) {
+                                recorded = Arrays.copyOf(recorded, count * 2);
+                            }
+                            recorded[count++] = System.nanoTime() - start;
+                        }
+                    }
+                } finally {
+                    latencies[client] = recorded;
+                    counts[client] = count;
+                    done.countDown();
+                }
+            }, "load-client-" + client);
+            thread.setDaemon(true);
+            thread.start();
+        }
+        done.await();
+
+        int total = 0;
+        for (int count : counts) {
+            total += count;
+        }
+        long[] all = new long[total];
+        for (int t = 0, offset = 0; t < threads; offset += counts[t], t++) {
+            System.arraycopy(latencies[t], 0, all, offset, counts[t]);
+        }
+        Arrays.sort(all);
+        return new Level(threads, seconds, all, errors.get());
+    }
+
+    // One user action, timed as a whole: a search, sometimes followed by a look at the next page
+    private void act(SplittableRandom random) throws Exception {
+        String query = queries[popularity.sample(random)];
+        Set<String> fields = Set.of(FIELD_COMBINATIONS[random.nextInt(FIELD_COMBINATIONS.length)]);
+        DocumentsSearcher.SearchResult result = searcher.search(query, fields, random.nextDouble() < ALPHABETICAL_RATE);
+        if (result.hasNextPage() && random.nextDouble() < PAGING_RATE) {
+            searcher.nextPage(result.getCursor());
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: LoadDriver <indexPath> [maxThreads] [secondsPerLevel] [zipfExponent] [searchThreads]");
+            System.exit(1);
+        }
+        int maxThreads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors() * 2;
+        double seconds = args.length > 2 ? Double.parseDouble(args[2]) : 10;
+        double exponent = args.length > 3 ? Double.parseDouble(args[3]) : 1.0;
+        int searchThreads = args.length > 4 ? Integer.parseInt(args[4]) : 1;
+
+        String[] queries = commonTerms(args[0], QUERY_TERMS);
+        System.out.printf("%d queries, Zipf exponent %.2f, %.0f s per level, %d thread(s) per search%n", queries.length, exponent, seconds, searchThreads);
+        System.out.printf("%8s %10s %9s %9s %9s %9s %7s%n", "threads", "searches/s", "p50 ms", "p99 ms", "p99.9 ms", "max ms", "errors");
+        try (DocumentsSearcher searcher = new DocumentsSearcher(args[0], new DocumentsSearcherConfig()
+                .setRefreshIntervalMillis(0)
+                .setSearchThreads(searchThreads))) {
+            LoadDriver driver = new LoadDriver(searcher, queries, exponent);
+            for (int threads = 1; threads <= maxThreads; threads *= 2) {
+                Level level = driver.run(threads, Math.min(seconds, 3), seconds);
+                System.out.printf("%8d %10.0f %9.2f %9.2f %9.2f %9.2f %7d%n", threads, level.throughput(),
+                        level.percentileMillis(50), level.percentileMillis(99), level.percentileMillis(99.9),
+                        level.percentileMillis(100), level.errors);
+            }
+        }
+    }
+}
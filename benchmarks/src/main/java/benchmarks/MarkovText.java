@@ -0,0 +1,98 @@
+package benchmarks;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+// First-order Markov chain over words: each word is followed by a word drawn with the frequency
+// the training text followed it with. Sequences are learned and generated whole, so how they start,
+// how long they run and how they end is learned too.
+final class MarkovText {
+
+    private static final int BOUNDARY = 0;  // state before the first word, and the word after the last
+
+    private final Map<String, Integer> ids = new HashMap<>();
+    private final List<String> words = new ArrayList<>();
+    private final List<Map<Integer, Integer>> counts = new ArrayList<>();
+    private int[][] successors;  // per state, the words seen after it
+    private int[][] cumulative;  // per state, running totals of their counts
+
+    MarkovText() {
+        words.add(null);
+        counts.add(new HashMap<>());
+    }
+
+    void learn(String[] sequence) {
+        int previous = BOUNDARY;
+        for (String word : sequence) {
+            int id = id(word);
+            counts.get(previous).merge(id, 1, Integer::sum);
+            previous = id;
+        }
+        counts.get(previous).merge(BOUNDARY, 1, Integer::sum);
+        successors = null;
+    }
+
+    private int id(String word) {
+        Integer id = ids.get(word);
+        if (id == null) {
+            id = words.size();
+            ids.put(word, id);
+            words.add(word);
+            counts.add(new HashMap<>());
+        }
+        return id;
+    }
+
+    // Frozen into arrays once learning is done, generating then allocates only the output
+    private void freeze() {
+        successors = new int[counts.size()][];
+        cumulative = new int[counts.size()][];
+        for (int state = 0; state < counts.size(); state++) {
+            Map<Integer, Integer> next = counts.get(state);
+            successors[state] = new int[next.size()];
+            cumulative[state] = new int[next.size()];
+            int i = 0, total = 0;
+            for (Map.Entry<Integer, Integer> entry : next.entrySet()) {
+                total += entry.getValue();
+                successors[state][i] = entry.getKey();
+                cumulative[state][i] = total;
+                i++;
+            }
+        }
+    }
+
+    // Appends one sequence of at most maxWords words separated by spaces, returns the number of words
+    int generate(SplittableRandom random, int maxWords, StringBuilder out) {
+        if (successors == null) {
+            freeze();
+        }
+        int state = BOUNDARY;
+        int generated = 0;
+        while (generated < maxWords) {
+            int[] totals = cumulative[state];
+            if (totals.length == 0) {
+                break;
+            }
+            int draw = random.nextInt(totals[totals.length - 1]);
+            int i = Arrays.binarySearch(totals, draw + 1);
+            state = successors[state][i < 0 ? -i - 1 : i];
+            if (state == BOUNDARY) {
+                break;
+            }
+            if (generated > 0) {
+                out.append(' ');
+            }
+            out.append(words.get(state));
+            generated++;
+        }
+        return generated;
+    }
+
+    int vocabularySize() {
+        return words.size() - 1;
+    }
+}
@@ -0,0 +1,71 @@
+package benchmarks;
+
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import searchDocuments.DocumentsSearcher;
+import searchDocuments.DocumentsSearcherConfig;
+
+// Latency of nextPage from a cursor deep into the results of a broad query, uncached
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PagingBenchmark {
+
+    private static final String QUERY = "love";
+
+    @Param({"10000", "100000"})
+    int songs;
+
+    @Param({"1", "10", "100"})
+    int depth;  // pages before the one fetched
+
+    @Param({"false", "true"})
+    boolean alphabetical;
+
+    private DocumentsSearcher searcher;
+    private String cursor;
+
+    @Setup
+    public void open() throws IOException, ParseException {
+        searcher = new DocumentsSearcher(Fixtures.index(songs).toString(), new DocumentsSearcherConfig()
+                .setRefreshIntervalMillis(0)
+                .setResultCacheMB(0));
+        DocumentsSearcher.SearchResult page = searcher.search(QUERY, Set.of(), alphabetical);
+        for (int i = 1; i < depth && page != null; i++) {
+            page = searcher.nextPage(page.getCursor());
+        }
+        if (page == null || !page.hasNextPage()) {
+            throw new IllegalStateException(songs + " songs have fewer than " + (depth + 1) + " pages for " + QUERY);
+        }
+        cursor = page.getCursor();
+    }
+
+    @TearDown
+    public void close() throws IOException {
+        searcher.close();
+    }
+
+    @Benchmark
+    public DocumentsSearcher.SearchResult nextPage() throws ParseException, IOException {
+        return searcher.nextPage(cursor);
+    }
+}
@@ -0,0 +1,71 @@
+package benchmarks;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import searchDocuments.DocumentsSearcher;
+import searchDocuments.DocumentsSearcherConfig;
+
+// Latency of a first result page for every combination of searched fields, in relevance and
+// alphabetical order. The result cache is off, so every call runs the query, loads and highlights the page.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SearchBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    int songs;
+
+    @Param({"artist", "song", "lyrics", "artist,song", "artist,lyrics", "song,lyrics", "artist,song,lyrics"})
+    String fields;
+
+    @Param({"false", "true"})
+    boolean alphabetical;
+
+    @Param({"1", "4"})
+    int searchThreads;
+
+    private DocumentsSearcher searcher;
+    private Set<String> fieldSet;
+    private int next;
+
+    @Setup
+    public void open() throws IOException {
+        searcher = new DocumentsSearcher(Fixtures.index(songs).toString(), new DocumentsSearcherConfig()
+                .setRefreshIntervalMillis(0)
+                .setResultCacheMB(0)
+                .setSearchThreads(searchThreads));
+        fieldSet = new LinkedHashSet<>(Arrays.asList(fields.split(",")));
+    }
+
+    @TearDown
+    public void close() throws IOException {
+        searcher.close();
+    }
+
+    @Benchmark
+    public DocumentsSearcher.SearchResult search() throws ParseException, IOException {
+        String query = Fixtures.QUERIES[next++ % Fixtures.QUERIES.length];
+        return searcher.search(query, fieldSet, alphabetical);
+    }
+}
@@ -0,0 +1,35 @@
+package benchmarks;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+// Ranks 0..n-1 drawn with probability proportional to 1 / (rank + 1)^exponent:
+// a few items take most of the draws and a long tail is drawn now and then
+final class ZipfDistribution {
+
+    private final double[] cumulative;
+
+    ZipfDistribution(int n, double exponent) {
+        if (n < 1) {
+            throw new IllegalArgumentException("n must be positive, got " + n);
+        }
+        cumulative = new double[n];
+        double sum = 0;
+        for (int rank = 0; rank < n; rank++) {
+            sum += 1 / Math.pow(rank + 1, exponent);
+            cumulative[rank] = sum;
+        }
+        for (int rank = 0; rank < n; rank++) {
+            cumulative[rank] /= sum;
+        }
+    }
+
+    int sample(SplittableRandom random) {
+        int rank = Arrays.binarySearch(cumulative, random.nextDouble());
+        return Math.min(rank < 0 ? -rank - 1 : rank, cumulative.length - 1);
+    }
+
+    int size() {
+        return cumulative.length;
+    }
+}
@@ -0,0 +1,213 @@
+package indexDocuments;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.BytesRefBuilder;
+import org.apache.lucene.util.CharsRef;
+import org.apache.lucene.util.CharsRefBuilder;
+
+// Streaming RFC 4180 reader over a memory-mapped csv file.
+// The file is mapped one window at a time, so files larger than the heap are read at disk speed.
+// Quoted fields may contain commas, line breaks and "" escapes. Fields of the current record are
+// UTF-8 byte slices that are reused by the next call to next(), so reading a row allocates nothing.
+public class CsvReader implements Closeable {
+
+	private static final int DEFAULT_WINDOW_SIZE = 64 << 20;
+	private static final int MAX_WINDOW_SIZE = Integer.MAX_VALUE - 8;
+
+	private final FileChannel channel;
+	private final long size;
+	private int windowSize;
+	private MappedByteBuffer window;
+	private long windowStart;
+	private long position;		// file offset of the next record
+
+	private final List<BytesRefBuilder> fields = new ArrayList<>();
+	private int fieldCount;
+	private final CharsRefBuilder chars = new CharsRefBuilder();
+
+	public CsvReader(Path path) throws IOException {
+		this(path, DEFAULT_WINDOW_SIZE);
+	}
+
+	public CsvReader(Path path, int windowSize) throws IOException {
+		if (windowSize < 1) {
+			throw new IllegalArgumentException("windowSize must be positive, got " + windowSize);
+		}
+		this.channel = FileChannel.open(path, StandardOpenOption.READ);
+		this.size = channel.size();
+		this.windowSize = windowSize;
+		map(0);
+		// skip a UTF-8 byte order mark
+		ByteBuffer bom = ByteBuffer.allocate(3);
+		channel.read(bom, 0);
+		if (bom.position() == 3 && bom.get(0) == (byte) 0xEF && bom.get(1) == (byte) 0xBB && bom.get(2) == (byte) 0xBF) {
+			position = 3;
+		}
+	}
+
+	// Advance to the next record, returns false at the end of the file
+	public boolean next() throws IOException {
+		while (position < size) {
+			if (position >= windowStart + window.limit()) {
+				map(position);
+			}
+			int end = parseRecord((int) (position - windowStart));
+			if (end >= 0) {
+				position = windowStart + end;
+				return true;
+			}
+			// the record runs past the mapped window: remap from its start, growing the window if the record fills it
+			if (position == windowStart) {
+				if (windowSize == MAX_WINDOW_SIZE) {
+					throw new IOException("Csv record at offset " + position + " is larger than " + MAX_WINDOW_SIZE + " bytes");
+				}
+				windowSize = (int) Math.min((long) windowSize * 2, MAX_WINDOW_SIZE);
+			}
+			map(position);
+		}
+		fieldCount = 0;
+		return false;
+	}
+
+	public int fieldCount() {
+		return fieldCount;
+	}
+
+	// UTF-8 bytes of a field of the current record, valid until the next call to next()
+	public BytesRef field(int index) {
+		checkIndex(index);
+		return fields.get(index).get();
+	}
+
+	// Decoded characters of a field, valid until the next call to fieldAsChars or fieldAsString
+	public CharsRef fieldAsChars(int index) {
+		chars.copyUTF8Bytes(field(index));
+		return chars.get();
+	}
+
+	public String fieldAsString(int index) {
+		return fieldAsChars(index).toString();
+	}
+
+	// Offset of the next record, for progress reporting
+	public long position() {
+		return position;
+	}
+
+	public long size() {
+		return size;
+	}
+
+	@Override
+	public void close() throws IOException {
+		window = null;
+		channel.close();
+	}
+
+	private void checkIndex(int index) {
+		if (index < 0 || index >= fieldCount) {
+			throw new IndexOutOfBoundsException("Field " + index + " of a record with " + fieldCount + " fields");
+		}
+	}
+
+	private void map(long start) throws IOException {
+		long length = Math.min(windowSize, size - start);
+		this.window = channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+		this.windowStart = start;
+	}
+
+	// Parse one record starting at offset in the window.
+	// Returns the offset just past its line break, or -1 if the record is cut off by the end of the window.
+	private int parseRecord(int offset) {
+		MappedByteBuffer buf = this.window;
+		int limit = buf.limit();
+		boolean lastWindow = windowStart + limit == size;
+		int i = offset;
+		fieldCount = 0;
+		while (true) {
+			BytesRefBuilder field = nextField();
+			if (i < limit && buf.get(i) == '"') {
+				i++;
+				while (true) {
+					int runStart = i;
+					while (i < limit && buf.get(i) != '"') {
+						i++;
+					}
+					append(field, buf, runStart, i);
+					if (i >= limit) {
+						if (!lastWindow) {
+							return -1;
+						}
+						return i;	// unterminated quote at the end of the file
+					}
+					if (i + 1 < limit && buf.get(i + 1) == '"') {
+						field.append((byte) '"');	// escaped quote
+						i += 2;
+					} else if (i + 1 >= limit && !lastWindow) {
+						return -1;	// cannot tell an escaped quote from a closing one yet
+					} else {
+						i++;		// closing quote
+						break;
+					}
+				}
+			}
+
+			// unquoted field, or anything between a closing quote and the next delimiter
+			int runStart = i;
+			while (i < limit) {
+				byte b = buf.get(i);
+				if (b == ',' || b == '\n' || b == '\r') {
+					break;
+				}
+				i++;
+			}
+			append(field, buf, runStart, i);
+
+			if (i >= limit) {
+				return lastWindow ? i : -1;
+			}
+			byte delimiter = buf.get(i);
+			if (delimiter == ',') {
+				i++;
+				continue;
+			}
+			if (delimiter == '\r') {
+				if (i + 1 >= limit) {
+					return lastWindow ? i + 1 : -1;
+				}
+				return buf.get(i + 1) == '\n' ? i + 2 : i + 1;
+			}
+			return i + 1;
+		}
+	}
+
+	private BytesRefBuilder nextField() {
+		if (fieldCount == fields.size()) {
+			fields.add(new BytesRefBuilder());
+		}
+		BytesRefBuilder field = fields.get(fieldCount++);
+		field.clear();
+		return field;
+	}
+
+	private static void append(BytesRefBuilder field, MappedByteBuffer buf, int from, int to) {
+		int length = to - from;
+		if (length > 0) {
+			int oldLength = field.length();
+			field.grow(oldLength + length);
+			buf.get(from, field.bytes(), oldLength, length);
+			field.setLength(oldLength + length);
+		}
+	}
+
+}
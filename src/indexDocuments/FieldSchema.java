@@ -0,0 +1,326 @@
+package indexDocuments;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.core.KeywordAnalyzer;
+import org.apache.lucene.analysis.core.SimpleAnalyzer;
+import org.apache.lucene.analysis.core.WhitespaceAnalyzer;
+import org.apache.lucene.analysis.en.EnglishAnalyzer;
+import org.apache.lucene.analysis.miscellaneous.PerFieldAnalyzerWrapper;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.codecs.Codec;
+import org.apache.lucene.codecs.lucene95.Lucene95Codec;
+import org.apache.lucene.document.FieldType;
+import org.apache.lucene.index.IndexOptions;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
+
+// Declarative description of how each csv column is indexed.
+// IndexCreation builds documents from it and records it in the commit user data,
+// DocumentsSearcher reads it back from the index to parse queries the same way.
+//
+// The properties format is:
+//   fields=artist,song,lyrics     (id, fingerprint, snippet and artist_exact are reserved)
+//   field.<name>.column=<csv column>
+//   field.<name>.indexed|stored|docValues|termVectors|offsets=true|false
+//   field.<name>.analyzer=standard|english|simple|whitespace|keyword
+//   storedFields.compression=BEST_SPEED|BEST_COMPRESSION
+// Lucene compresses stored fields per block of documents, not per field, so the
+// compression mode is a setting of the whole schema.
+public class FieldSchema {
+
+	public static final String ARTIST = "artist";
+	public static final String SONG = "song";
+	public static final String LYRICS = "lyrics";
+
+	// Fields every song document has besides the schema ones
+	public static final String ID = "id";				// stable key of a song, a hash of artist and song
+	public static final String SNIPPET = "snippet";	// start of the lyrics, stored for result lists
+	public static final String ARTIST_EXACT = "artist_exact";	// the whole artist name as one term, for drill-down filters
+	public static final int SNIPPET_LENGTH = 200;
+	private static final Set<String> RESERVED = Set.of(ID, SongDocument.FINGERPRINT, SNIPPET, ARTIST_EXACT);
+
+	private static final String COMMIT_PREFIX = "schema.";
+
+	public enum AnalyzerType {
+		STANDARD, ENGLISH, SIMPLE, WHITESPACE, KEYWORD;
+
+		Analyzer create() {
+			switch (this) {
+				case ENGLISH: return new EnglishAnalyzer();
+				case SIMPLE: return new SimpleAnalyzer();
+				case WHITESPACE: return new WhitespaceAnalyzer();
+				case KEYWORD: return new KeywordAnalyzer();
+				default: return new StandardAnalyzer();
+			}
+		}
+	}
+
+	public static final class FieldSpec {
+		private final String name;
+		private final int column;
+		private final boolean indexed;
+		private final boolean stored;
+		private final boolean docValues;
+		private final boolean termVectors;
+		private final boolean offsets;
+		private final AnalyzerType analyzer;
+
+		public FieldSpec(String name, int column, boolean indexed, boolean stored, boolean docValues, boolean termVectors, AnalyzerType analyzer) {
+			this(name, column, indexed, stored, docValues, termVectors, false, analyzer);
+		}
+
+		public FieldSpec(String name, int column, boolean indexed, boolean stored, boolean docValues, boolean termVectors, boolean offsets, AnalyzerType analyzer) {
+			this.name = name;
+			this.column = column;
+			this.indexed = indexed;
+			this.stored = stored;
+			this.docValues = docValues;
+			this.termVectors = termVectors;
+			this.offsets = offsets;
+			this.analyzer = analyzer;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public int getColumn() {
+			return column;
+		}
+
+		public boolean isIndexed() {
+			return indexed;
+		}
+
+		public boolean isStored() {
+			return stored;
+		}
+
+		public boolean hasDocValues() {
+			return docValues;
+		}
+
+		public boolean hasTermVectors() {
+			return termVectors;
+		}
+
+		// Character offsets in the postings, so the highlighter finds matches without analyzing the text again
+		public boolean hasOffsets() {
+			return offsets;
+		}
+
+		public AnalyzerType getAnalyzer() {
+			return analyzer;
+		}
+
+		// Lucene field type of the indexed and/or stored part, null if the field only has doc values
+		FieldType fieldType() {
+			if (!indexed && !stored) {
+				return null;
+			}
+			FieldType type = new FieldType();
+			type.setStored(stored);
+			if (indexed) {
+				type.setTokenized(true);
+				type.setIndexOptions(offsets ? IndexOptions.DOCS_AND_FREQS_AND_POSITIONS_AND_OFFSETS : IndexOptions.DOCS_AND_FREQS_AND_POSITIONS);
+				if (termVectors) {
+					type.setStoreTermVectors(true);
+					type.setStoreTermVectorPositions(true);
+					type.setStoreTermVectorOffsets(true);
+				}
+			}
+			type.freeze();
+			return type;
+		}
+	}
+
+	private final Map<String, FieldSpec> fields;
+	private final Lucene95Codec.Mode compression;
+
+	public FieldSchema(Collection<FieldSpec> fields, Lucene95Codec.Mode compression) {
+		Map<String, FieldSpec> byName = new LinkedHashMap<>();
+		for (FieldSpec field : fields) {
+			// the document adds these itself: a schema field of the same name would mix its values into them
+			if (RESERVED.contains(field.getName())) {
+				throw new IllegalArgumentException("Field name " + field.getName() + " is reserved");
+			}
+			if (byName.put(field.getName(), field) != null) {
+				throw new IllegalArgumentException("Field " + field.getName() + " is defined twice");
+			}
+		}
+		// a song is identified by its artist and title
+		if (!byName.containsKey(ARTIST) || !byName.containsKey(SONG)) {
+			throw new IllegalArgumentException("Schema must define the " + ARTIST + " and " + SONG + " fields");
+		}
+		this.fields = Collections.unmodifiableMap(byName);
+		this.compression = compression;
+	}
+
+	// Artist and song are sortable, the lyrics are only searched, highlighted and stored:
+	// keeping them in doc values as well doubled the index for nothing
+	public static FieldSchema defaultSchema() {
+		List<FieldSpec> fields = new ArrayList<>();
+		fields.add(new FieldSpec(ARTIST, 0, true, true, true, false, AnalyzerType.STANDARD));
+		fields.add(new FieldSpec(SONG, 1, true, true, true, false, AnalyzerType.STANDARD));
+		fields.add(new FieldSpec(LYRICS, 2, true, true, false, false, true, AnalyzerType.STANDARD));
+		return new FieldSchema(fields, Lucene95Codec.Mode.BEST_SPEED);
+	}
+
+	public static FieldSchema load(Path path) throws IOException {
+		Properties properties = new Properties();
+		try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+			properties.load(reader);
+		}
+		return fromProperties(properties);
+	}
+
+	public static FieldSchema fromProperties(Properties properties) {
+		String names = properties.getProperty("fields");
+		if (names == null || names.isBlank()) {
+			throw new IllegalArgumentException("Schema has no 'fields' entry");
+		}
+		List<FieldSpec> fields = new ArrayList<>();
+		for (String name : names.split(",")) {
+			name = name.trim();
+			String prefix = "field." + name + ".";
+			String column = properties.getProperty(prefix + "column");
+			if (column == null) {
+				throw new IllegalArgumentException("Schema field " + name + " has no column");
+			}
+			fields.add(new FieldSpec(name, Integer.parseInt(column.trim()),
+					flag(properties, prefix + "indexed", true),
+					flag(properties, prefix + "stored", true),
+					flag(properties, prefix + "docValues", false),
+					flag(properties, prefix + "termVectors", false),
+					flag(properties, prefix + "offsets", false),
+					AnalyzerType.valueOf(properties.getProperty(prefix + "analyzer", "standard").trim().toUpperCase(Locale.ROOT))));
+		}
+		String compression = properties.getProperty("storedFields.compression", Lucene95Codec.Mode.BEST_SPEED.name());
+		return new FieldSchema(fields, Lucene95Codec.Mode.valueOf(compression.trim().toUpperCase(Locale.ROOT)));
+	}
+
+	private static boolean flag(Properties properties, String key, boolean defaultValue) {
+		String value = properties.getProperty(key);
+		return value == null ? defaultValue : Boolean.parseBoolean(value.trim());
+	}
+
+	public Properties toProperties() {
+		Properties properties = new Properties();
+		properties.setProperty("fields", String.join(",", fields.keySet()));
+		for (FieldSpec field : fields.values()) {
+			String prefix = "field." + field.getName() + ".";
+			properties.setProperty(prefix + "column", Integer.toString(field.getColumn()));
+			properties.setProperty(prefix + "indexed", Boolean.toString(field.isIndexed()));
+			properties.setProperty(prefix + "stored", Boolean.toString(field.isStored()));
+			properties.setProperty(prefix + "docValues", Boolean.toString(field.hasDocValues()));
+			properties.setProperty(prefix + "termVectors", Boolean.toString(field.hasTermVectors()));
+			properties.setProperty(prefix + "offsets", Boolean.toString(field.hasOffsets()));
+			properties.setProperty(prefix + "analyzer", field.getAnalyzer().name().toLowerCase(Locale.ROOT));
+		}
+		properties.setProperty("storedFields.compression", compression.name());
+		return properties;
+	}
+
+	// Entries to record in the index commit user data
+	public Map<String, String> toCommitData() {
+		Properties properties = toProperties();
+		Map<String, String> data = new HashMap<>();
+		for (String key : properties.stringPropertyNames()) {
+			data.put(COMMIT_PREFIX + key, properties.getProperty(key));
+		}
+		return data;
+	}
+
+	// Schema recorded in a commit, or null for indexes built before schemas were recorded
+	public static FieldSchema fromCommitData(Map<String, String> data) {
+		Properties properties = new Properties();
+		for (Map.Entry<String, String> entry : data.entrySet()) {
+			if (entry.getKey().startsWith(COMMIT_PREFIX)) {
+				properties.setProperty(entry.getKey().substring(COMMIT_PREFIX.length()), entry.getValue());
+			}
+		}
+		return properties.isEmpty() ? null : fromProperties(properties);
+	}
+
+	public Collection<FieldSpec> getFields() {
+		return fields.values();
+	}
+
+	public FieldSpec getField(String name) {
+		return fields.get(name);
+	}
+
+	// Names of the fields a query can search
+	public List<String> getSearchableFields() {
+		List<String> names = new ArrayList<>();
+		for (FieldSpec field : fields.values()) {
+			if (field.isIndexed()) {
+				names.add(field.getName());
+			}
+		}
+		return names;
+	}
+
+	// What result lists show of the lyrics
+	public static String snippet(String lyrics) {
+		return lyrics.length() > SNIPPET_LENGTH ? lyrics.substring(0, SNIPPET_LENGTH) + "..." : lyrics;
+	}
+
+	// Order of the Alphabetical Grouping results, also the index sort of a sorted index
+	public static Sort alphabeticalSort() {
+		return new Sort(new SortField(ARTIST, SortField.Type.STRING), new SortField(SONG, SortField.Type.STRING));
+	}
+
+	public int getColumnCount() {
+		int columns = 0;
+		for (FieldSpec field : fields.values()) {
+			columns = Math.max(columns, field.getColumn() + 1);
+		}
+		return columns;
+	}
+
+	public Lucene95Codec.Mode getCompression() {
+		return compression;
+	}
+
+	public Codec codec() {
+		return new Lucene95Codec(compression);
+	}
+
+	// One analyzer per field as declared, fields outside the schema use the standard analyzer
+	public Analyzer buildAnalyzer() {
+		Map<AnalyzerType, Analyzer> shared = new HashMap<>();
+		Map<String, Analyzer> perField = new HashMap<>();
+		for (FieldSpec field : fields.values()) {
+			perField.put(field.getName(), shared.computeIfAbsent(field.getAnalyzer(), AnalyzerType::create));
+		}
+		return new PerFieldAnalyzerWrapper(shared.computeIfAbsent(AnalyzerType.STANDARD, AnalyzerType::create), perField);
+	}
+
+	@Override
+	public boolean equals(Object other) {
+		return other instanceof FieldSchema && toProperties().equals(((FieldSchema) other).toProperties());
+	}
+
+	@Override
+	public int hashCode() {
+		return toProperties().hashCode();
+	}
+
+}
@@ -1,90 +1,589 @@
 package indexDocuments;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.lucene.analysis.Analyzer;
-import org.apache.lucene.analysis.standard.StandardAnalyzer;
-import org.apache.lucene.document.Document;
-import org.apache.lucene.document.Field;
-import org.apache.lucene.document.SortedDocValuesField;
-import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
 import org.apache.lucene.index.IndexWriterConfig.OpenMode;
+import org.apache.lucene.index.MultiReader;
+import org.apache.lucene.index.SegmentCommitInfo;
+import org.apache.lucene.index.SegmentInfos;
+import org.apache.lucene.search.Sort;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
 import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.BytesRefBuilder;
+import org.apache.lucene.util.IOUtils;
+
+import metrics.LatencyHistogram;
+import metrics.Metrics;
 
 public class IndexCreation {
-	
+
+	private static final int BATCH_SIZE = 256;				// rows handed to a worker at once
+	private static final int QUEUED_BATCHES_PER_THREAD = 4;	// how far the reader may run ahead of the workers
+	private static final RowBatch END_OF_INPUT = new RowBatch(0);
+	// Time to build, analyze and add one document, to write the final commit and to rebuild the n-grams
+	private static final LatencyHistogram INDEX_DOCUMENT = Metrics.histogram("index_document");
+	private static final LatencyHistogram INDEX_COMMIT = Metrics.histogram("index_commit");
+	private static final LatencyHistogram INDEX_NGRAMS = Metrics.histogram("index_ngrams");
+	private static final AtomicLong INDEXED_DOCUMENTS = Metrics.counter("index_documents_total");
+
+	private final Path root;
+	private final boolean incremental;	// updating the index in place rather than building it anew
 	private final Directory directory;
+	private final Directory[] shardDirectories;	// empty unless the songs are sharded
+	private final FieldSchema schema;
 	private final Analyzer analyzer;
-	private final IndexWriterConfig config;
-	private IndexWriter iWriter; 
-	
+	private IndexWriter iWriter;
+	private IndexWriter[] writers;	// where songs are added: iWriter, or one writer per shard
+	private final SourceFingerprint source;
+	private final ProgressListener progressListener;	// null for none
+	private int reportedPercent = -1;
+
+	// Called on the thread reading the csv, so it should only hand the numbers on
+	public interface ProgressListener {
+		void progress(long bytesRead, long bytesTotal);
+	}
+
+	// How an index relates to the csv it should hold
+	public enum Status {
+		MISSING,
+		OUTDATED,	// built with another schema, layout, sort or shard count: an update rebuilds it
+		STALE,		// built from another version of the csv: an update applies the changed rows
+		UP_TO_DATE
+	}
+
 	public IndexCreation(String csvPath, String indexPath) throws IOException {
+		this(csvPath, indexPath, new IndexCreationConfig());
+	}
+
+	public IndexCreation(String csvPath, String indexPath, IndexCreationConfig settings) throws IOException {
+		// taken before reading the rows: a csv changing during the build is then found stale next time
+		this.source = SourceFingerprint.of(Paths.get(csvPath));
+		this.progressListener = settings.getProgressListener();
+
 		// Store the index on disk
-		this.directory = FSDirectory.open(Paths.get(indexPath));
-		
-		
-		//lowercases, removes stop words,..
-		this.analyzer = new StandardAnalyzer();
-		
-		// IndexWriter Configuration
-		this.config = new IndexWriterConfig(analyzer);
-		config.setOpenMode(OpenMode.CREATE);	// Creates a new index.
-		
-		// IndexWriter writes new index file to directory
-		this.iWriter = new IndexWriter (directory, config);
-		
-		buildIndex(csvPath);
-	}
-	
+		this.root = Paths.get(indexPath);
+		this.directory = FSDirectory.open(root);
+		int shards = settings.getShards();
+		this.shardDirectories = new Directory[shards == 1 ? 0 : shards];
+		for (int i = 0; i < shardDirectories.length; i++) {
+			shardDirectories[i] = FSDirectory.open(IndexLayout.shardPath(root, i));
+		}
+
+		// Which fields are indexed, stored and sortable, and how each one is analyzed
+		this.schema = settings.getSchema();
+		this.analyzer = schema.buildAnalyzer();
+
+		Sort indexSort = null;
+		if (settings.isIndexSorted()) {
+			checkSortable(schema, FieldSchema.ARTIST);
+			checkSortable(schema, FieldSchema.SONG);
+			indexSort = FieldSchema.alphabeticalSort();
+		}
+
+		this.incremental = settings.isIncremental() && canUpdateInPlace(root, directory, schema, indexSort, shards);
+
+		// IndexWriter writes new index file to directory, the shards share the RAM buffer
+		double ramBufferSizeMB = settings.getRAMBufferSizeMB() / shards;
+		this.iWriter = new IndexWriter (directory, writerConfig(indexSort, incremental, ramBufferSizeMB));
+		if (shardDirectories.length == 0) {
+			this.writers = new IndexWriter[] { iWriter };
+		} else {
+			this.writers = new IndexWriter[shards];
+			for (int i = 0; i < shards; i++) {
+				writers[i] = new IndexWriter(shardDirectories[i], writerConfig(indexSort, incremental, ramBufferSizeMB));
+			}
+		}
+		if (incremental) {
+			updateIndex(csvPath);
+		} else if (settings.getThreads() > 1) {
+			buildIndexParallel(csvPath, settings.getThreads());
+		} else {
+			buildIndex(csvPath);
+		}
+	}
+
+	// Whether the index at indexPath holds the csv as it is now, built with these settings.
+	// Indexes built before the csv was recorded with the commit count as stale.
+	public static Status status(String csvPath, String indexPath, IndexCreationConfig settings) throws IOException {
+		try (Directory directory = FSDirectory.open(Paths.get(indexPath))) {
+			if (!DirectoryReader.indexExists(directory)) {
+				return Status.MISSING;
+			}
+			Sort indexSort = settings.isIndexSorted() ? FieldSchema.alphabeticalSort() : null;
+			if (!canUpdateInPlace(Paths.get(indexPath), directory, settings.getSchema(), indexSort, settings.getShards())) {
+				return Status.OUTDATED;
+			}
+			SourceFingerprint indexed = SourceFingerprint.fromCommitData(SegmentInfos.readLatestCommit(directory).getUserData());
+			if (indexed == null || !indexed.matches(Paths.get(csvPath))) {
+				return Status.STALE;
+			}
+		}
+		// indexes built before typo tolerance get their n-grams with the next update
+		try (Directory ngrams = FSDirectory.open(NgramIndex.path(Paths.get(indexPath)))) {
+			return DirectoryReader.indexExists(ngrams) ? Status.UP_TO_DATE : Status.STALE;
+		}
+	}
+
+	// Every writer needs its own configuration
+	private IndexWriterConfig writerConfig(Sort indexSort, boolean incremental, double ramBufferSizeMB) {
+		IndexWriterConfig config = new IndexWriterConfig(analyzer);
+		config.setCodec(schema.codec());
+		if (indexSort != null) {
+			config.setIndexSort(indexSort);	// Segments are written and merged in alphabetical order.
+		}
+		if (incremental) {
+			config.setOpenMode(OpenMode.APPEND);	// Updates the existing index.
+		} else {
+			config.setOpenMode(OpenMode.CREATE);	// Creates a new index.
+		}
+		config.setRAMBufferSizeMB(ramBufferSizeMB);
+		return config;
+	}
+
+	// Shards left over from a build with more of them, or all of them when the index is no longer sharded
+	private static void removeStaleShards(Path root, int shards) throws IOException {
+		for (int i = shards; Files.isDirectory(IndexLayout.shardPath(root, i)); i++) {
+			IOUtils.rm(IndexLayout.shardPath(root, i));
+		}
+	}
+
+	// The writer of the shard a row belongs to
+	private IndexWriter writer(SongDocument doc, BytesRef[] row) {
+		return writers.length == 1 ? iWriter : writers[IndexLayout.shard(doc.id(row), writers.length)];
+	}
+
+	private IndexWriter writer(long id) {
+		return writers.length == 1 ? iWriter : writers[IndexLayout.shard(id, writers.length)];
+	}
+
+	// Of the rows repeating a song, the first is indexed as an update keeps it, see updateIndex
 	public void buildIndex(String filePath) throws IOException {
-		BufferedReader reader = new BufferedReader (new FileReader(filePath));
-        String line;
-
-        // Read the first line
-        String columnNames = reader.readLine();
-
-        // Read in the remaining lines and extract the relevant fields
-        while ((line = reader.readLine()) != null) {
-        	int firstCommaIndex = line.indexOf(",");
-        	int secondCommaIndex = line.indexOf(",", firstCommaIndex + 1);
-            String artist = line.substring(0, line.indexOf(","));					// get the artist name
-            String song = line.substring(firstCommaIndex + 1, secondCommaIndex);	// get the song name
-            String lyrics = line.substring(secondCommaIndex+1);						// get the lyrics of the song
-         
-            buildDocuments(artist, song, lyrics);
-        }
-        reader.close();	
-        
-        // close index
-        this.iWriter.close();
-	}
-	
-	private void buildDocuments(String artist, String song, String lyrics) throws IOException {
-	    // Create a new document
-	    Document doc = new Document();
-		
-	    // Add the "song" field to the document as a TextField
-	    doc.add(new TextField("song", song, Field.Store.YES));
-		
-	    // Add the "song" field to the document as a SortedDocValuesField
-	    // This allows for sorting and faceting on the "song" field
-	    doc.add(new SortedDocValuesField("song", new BytesRef(song)));
-
-	    //same for artist and lyrics
-	    doc.add(new TextField("artist", artist, Field.Store.YES));
-	    doc.add(new SortedDocValuesField("artist", new BytesRef(artist)));
-	    doc.add(new TextField("lyrics", lyrics, Field.Store.YES));
-	    doc.add(new SortedDocValuesField("lyrics", new BytesRef(lyrics)));
-
-	    // Add the document to the index writer
-	    this.iWriter.addDocument(doc);
+		long start = System.nanoTime();
+		long rows = 0;
+		SongDocument doc = new SongDocument(schema);
+		BytesRef[] row = new BytesRef[schema.getColumnCount()];
+		SongIdSet ids = new SongIdSet();
+		try (CsvReader reader = new CsvReader(Paths.get(filePath))) {
+			// Skip the first record, it holds the column names
+			reader.next();
+
+			// Read in the remaining records and extract the relevant fields
+			while (reader.next()) {
+				reportProgress(reader);
+				if (!readRow(reader, row)) {
+					continue;	// blank or malformed line
+				}
+				long id = doc.id(row);
+				if (!ids.add(id)) {
+					continue;
+				}
+				long documentStart = System.nanoTime();
+				writer(id).addDocument(doc.fill(row, id, SongDocument.fingerprint(id, row)));
+				INDEX_DOCUMENT.recordSince(documentStart);
+				rows++;
+			}
+		} catch (IOException | RuntimeException e) {
+			rollback();
+			throw e;
+		}
+
+		// close index
+		commitAndClose();
+		reportThroughput(rows, 1, start);
+	}
+
+	// Pipelined variant of buildIndex: this thread tokenizes the csv into batches of raw rows,
+	// a pool of workers decodes them and adds the documents to the shared IndexWriter,
+	// which is safe for concurrent use. Repeated songs are dropped here, in csv order.
+	public void buildIndexParallel(String filePath, int threads) throws IOException {
+		long start = System.nanoTime();
+		long rows = 0;
+		BlockingQueue<RowBatch> queue = new ArrayBlockingQueue<>(threads * QUEUED_BATCHES_PER_THREAD);
+		ExecutorService workers = Executors.newFixedThreadPool(threads);
+		List<Future<Long>> results = new ArrayList<>();
+		boolean completed = false;
+		try {
+			for (int i = 0; i < threads; i++) {
+				results.add(workers.submit(() -> indexBatches(queue)));
+			}
+
+			try (CsvReader reader = new CsvReader(Paths.get(filePath))) {
+				reader.next();	// skip the column names
+				int columns = schema.getColumnCount();
+				int artistColumn = schema.getField(FieldSchema.ARTIST).getColumn();
+				int songColumn = schema.getField(FieldSchema.SONG).getColumn();
+				SongIdSet ids = new SongIdSet();
+				RowBatch batch = new RowBatch(columns);
+				while (reader.next()) {
+					reportProgress(reader);
+					if (reader.fieldCount() < columns || !ids.add(SongDocument.id(reader.field(artistColumn), reader.field(songColumn)))) {
+						continue;
+					}
+					batch.add(reader);
+					if (batch.size() == BATCH_SIZE) {
+						enqueue(queue, batch, results);
+						batch = new RowBatch(columns);
+					}
+				}
+				if (batch.size() > 0) {
+					enqueue(queue, batch, results);
+				}
+			}
+
+			// one end marker per worker, then wait for all of them
+			for (int i = 0; i < threads; i++) {
+				enqueue(queue, END_OF_INPUT, results);
+			}
+			for (Future<Long> result : results) {
+				rows += awaitWorker(result);
+			}
+			completed = true;
+		} finally {
+			workers.shutdownNow();
+			if (!completed) {
+				rollback();
+			}
+		}
+
+		// close index
+		commitAndClose();
+		reportThroughput(rows, threads, start);
+	}
+
+	// Apply only the difference between the csv and the existing index. Rows are matched to songs by id
+	// and compared by fingerprint, so unchanged rows are hashed but never decoded or analyzed again.
+	public void updateIndex(String filePath) throws IOException {
+		long start = System.nanoTime();
+		long added = 0, changed = 0, unchanged = 0;
+		long[] removed = new long[1];
+		SongDocument doc = new SongDocument(schema);
+		BytesRef[] row = new BytesRef[schema.getColumnCount()];
+		SongIdSet newIds = new SongIdSet();	// the lookup only knows the songs already indexed
+		try (IndexReader existing = openExisting();
+				CsvReader reader = new CsvReader(Paths.get(filePath))) {
+			SongIdLookup lookup = new SongIdLookup(existing);
+			reader.next();	// skip the column names
+			while (reader.next()) {
+				reportProgress(reader);
+				if (!readRow(reader, row)) {
+					continue;
+				}
+				long id = doc.id(row);
+				long fingerprint = SongDocument.fingerprint(id, row);
+				boolean found = lookup.find(id);
+				// the first of the rows repeated in the csv is kept, as by a full build, so that the next
+				// update finds it unchanged
+				if (found ? lookup.fingerprint() == fingerprint || lookup.repeated() : !newIds.add(id)) {
+					unchanged++;
+					continue;
+				}
+				// updateDocument also collapses the copies of a song older indexes may hold
+				long documentStart = System.nanoTime();
+				writer(id).updateDocument(SongDocument.idTerm(id), doc.fill(row, id, fingerprint));
+				INDEX_DOCUMENT.recordSince(documentStart);
+				INDEXED_DOCUMENTS.incrementAndGet();
+				if (found) {
+					changed++;
+				} else {
+					added++;
+				}
+			}
+
+			// songs no longer in the csv
+			lookup.forEachUnseen(id -> {
+				writer(id).deleteDocuments(SongDocument.idTerm(id));
+				removed[0]++;
+			});
+		} catch (IOException | RuntimeException e) {
+			rollback();
+			throw e;
+		}
+
+		// close index
+		commitAndClose();
+		double seconds = (System.nanoTime() - start) / 1e9;
+		System.out.printf("Updated index in %.2f s: %d added, %d changed, %d removed, %d unchanged%n",
+				seconds, added, changed, removed[0], unchanged);
+	}
+
+	// The songs of the existing index, of all shards at once when it is sharded
+	private IndexReader openExisting() throws IOException {
+		if (shardDirectories.length == 0) {
+			return DirectoryReader.open(directory);
+		}
+		DirectoryReader[] shards = new DirectoryReader[shardDirectories.length];
+		try {
+			for (int i = 0; i < shards.length; i++) {
+				shards[i] = DirectoryReader.open(shardDirectories[i]);
+			}
+		} catch (IOException | RuntimeException e) {
+			IOUtils.closeWhileHandlingException(shards);
+			throw e;
+		}
+		return new MultiReader(shards);
+	}
+
+	// Drop what every writer added, the last commits stay as they were
+	private void rollback() throws IOException {
+		for (IndexWriter writer : writers) {
+			if (writer != iWriter) {
+				writer.rollback();
+			}
+		}
+		this.iWriter.rollback();
+	}
+
+	// An index can be updated in place only if it exists and was built with the same schema,
+	// which also means its songs carry ids and fingerprints, and with the same index sort and shard count
+	// The index directory records the settings of the whole index, and each shard the index sort of its songs
+	private static boolean canUpdateInPlace(Path root, Directory directory, FieldSchema schema, Sort indexSort, int shards) throws IOException {
+		if (!canUpdateInPlace(directory, schema, indexSort, shards)) {
+			return false;
+		}
+		for (Path shardPath : IndexLayout.shardPaths(root, SegmentInfos.readLatestCommit(directory).getUserData())) {
+			try (Directory shard = FSDirectory.open(shardPath)) {
+				if (!canUpdateInPlace(shard, schema, indexSort, shards)) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	private static boolean canUpdateInPlace(Directory directory, FieldSchema schema, Sort indexSort, int shards) throws IOException {
+		if (!DirectoryReader.indexExists(directory)) {
+			return false;
+		}
+		SegmentInfos infos = SegmentInfos.readLatestCommit(directory);
+		for (SegmentCommitInfo segment : infos) {
+			if (!Objects.equals(segment.info.getIndexSort(), indexSort)) {
+				return false;
+			}
+		}
+		return schema.equals(FieldSchema.fromCommitData(infos.getUserData()))
+				&& SongDocument.LAYOUT.equals(infos.getUserData().get(SongDocument.LAYOUT_KEY))
+				&& IndexLayout.shardCount(infos.getUserData()) == shards;
+	}
+
+	private static void checkSortable(FieldSchema schema, String field) {
+		if (!schema.getField(field).hasDocValues()) {
+			throw new IllegalArgumentException("Sorting the index needs doc values on the " + field + " field");
+		}
+	}
+
+	// Tell the listener how far the reader got, once per percent of the csv
+	private void reportProgress(CsvReader reader) {
+		if (progressListener == null) {
+			return;
+		}
+		long size = reader.size();
+		int percent = size == 0 ? 100 : (int) (reader.position() * 100 / size);
+		if (percent > reportedPercent) {
+			reportedPercent = percent;
+			progressListener.progress(reader.position(), size);
+		}
+	}
+
+	// Point row at the columns of the current record, false if the record has too few of them
+	private static boolean readRow(CsvReader reader, BytesRef[] row) {
+		if (reader.fieldCount() < row.length) {
+			return false;
+		}
+		for (int i = 0; i < row.length; i++) {
+			row[i] = reader.field(i);
+		}
+		return true;
+	}
+
+	// Record the schema and the csv with the last commit so searchers and later updates can read them back.
+	// The index directory is committed after the shards and names their new commits, so searchers switch to all
+	// of them at once when it changes. Shards a rebuild no longer uses are removed only then.
+	private void commitAndClose() throws IOException {
+		Map<String, String> commitData = schema.toCommitData();
+		commitData.put(SongDocument.LAYOUT_KEY, SongDocument.LAYOUT);
+		source.addTo(commitData);
+		if (shardDirectories.length > 0) {
+			commitData.put(IndexLayout.SHARDS_KEY, Integer.toString(shardDirectories.length));
+		}
+		long start = System.nanoTime();
+		for (IndexWriter writer : writers) {
+			if (writer != iWriter) {
+				writer.setLiveCommitData(commitData.entrySet());
+				writer.close();
+			}
+		}
+		if (shardDirectories.length > 0) {
+			long[] generations = new long[shardDirectories.length];
+			for (int i = 0; i < generations.length; i++) {
+				generations[i] = SegmentInfos.getLastCommitGeneration(shardDirectories[i]);
+			}
+			commitData.put(IndexLayout.GENERATIONS_KEY, IndexLayout.formatGenerations(generations));
+		}
+		this.iWriter.setLiveCommitData(commitData.entrySet());
+		this.iWriter.close();
+		INDEX_COMMIT.recordSince(start);
+		if (!incremental) {
+			removeStaleShards(root, shardDirectories.length);
+		}
+		buildNgrams();
+	}
+
+	// The vocabulary of the committed songs for typo-tolerant searches, see NgramIndex.
+	// An update only changes the terms its rows added or removed.
+	private void buildNgrams() throws IOException {
+		long start = System.nanoTime();
+		try (IndexReader songs = openExisting();
+				Directory ngrams = FSDirectory.open(NgramIndex.path(root))) {
+			NgramIndex.update(songs, ngrams, !incremental);
+		}
+		INDEX_NGRAMS.recordSince(start);
+	}
+
+	// Worker loop: decode and index batches until the end marker arrives
+	private long indexBatches(BlockingQueue<RowBatch> queue) throws IOException, InterruptedException {
+		SongDocument doc = new SongDocument(schema);
+		BytesRef[] row = new BytesRef[schema.getColumnCount()];
+		for (int i = 0; i < row.length; i++) {
+			row[i] = new BytesRef();
+		}
+		long indexed = 0;
+		while (true) {
+			RowBatch batch = queue.take();
+			if (batch == END_OF_INPUT) {
+				return indexed;
+			}
+			for (int r = 0; r < batch.size(); r++) {
+				for (int column = 0; column < row.length; column++) {
+					batch.field(r, column, row[column]);
+				}
+				long documentStart = System.nanoTime();
+				writer(doc, row).addDocument(doc.fill(row));
+				INDEX_DOCUMENT.recordSince(documentStart);
+				indexed++;
+			}
+		}
+	}
+
+	// Hand a batch to the workers, failing fast if one of them died and can no longer drain the queue
+	private static void enqueue(BlockingQueue<RowBatch> queue, RowBatch batch, List<Future<Long>> workers) throws IOException {
+		try {
+			while (!queue.offer(batch, 100, TimeUnit.MILLISECONDS)) {
+				for (Future<Long> worker : workers) {
+					if (worker.isDone()) {
+						awaitWorker(worker);
+					}
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while queueing rows for indexing");
+		}
+	}
+
+	private static long awaitWorker(Future<Long> worker) throws IOException {
+		try {
+			return worker.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for an indexing worker");
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+			throw new IOException("Indexing worker failed", cause);
+		}
+	}
+
+	private static void reportThroughput(long rows, int threads, long startNanos) {
+		INDEXED_DOCUMENTS.addAndGet(rows);
+		double seconds = (System.nanoTime() - startNanos) / 1e9;
+		System.out.printf("Indexed %d rows with %d thread(s) in %.2f s (%.0f rows/sec)%n", rows, threads, seconds, rows / seconds);
+	}
+
+	// Rows copied out of the reader's reusable slices, packed into one byte array per batch
+	private static final class RowBatch {
+		private final BytesRefBuilder bytes = new BytesRefBuilder();
+		private final int columns;
+		private final int[] fieldEnds;
+		private int rows;
+
+		RowBatch(int columns) {
+			this.columns = columns;
+			this.fieldEnds = new int[BATCH_SIZE * columns];
+		}
+
+		void add(CsvReader reader) {
+			for (int i = 0; i < columns; i++) {
+				bytes.append(reader.field(i));
+				fieldEnds[rows * columns + i] = bytes.length();
+			}
+			rows++;
+		}
+
+		int size() {
+			return rows;
+		}
+
+		// Point `into` at a field of a row, without copying
+		void field(int row, int column, BytesRef into) {
+			int index = row * columns + column;
+			int from = index == 0 ? 0 : fieldEnds[index - 1];
+			into.bytes = bytes.bytes();
+			into.offset = from;
+			into.length = fieldEnds[index] - from;
+		}
+	}
+
+	// Build an index from the command line, e.g. to compare the single-threaded and parallel paths:
+	// IndexCreation [-incremental] [-sorted] [-shards=N] <csvPath> <indexPath> [threads] [ramBufferSizeMB]
+	public static void main(String[] args) throws IOException {
+		IndexCreationConfig settings = new IndexCreationConfig();
+		List<String> positional = new ArrayList<>();
+		for (String arg : args) {
+			if (arg.equals("-incremental")) {
+				settings.setIncremental(true);
+			} else if (arg.equals("-sorted")) {
+				settings.setIndexSorted(true);
+			} else if (arg.startsWith("-shards=")) {
+				settings.setShards(Integer.parseInt(arg.substring("-shards=".length())));
+			} else {
+				positional.add(arg);
+			}
+		}
+		if (positional.size() < 2) {
+			System.err.println("Usage: IndexCreation [-incremental] [-sorted] [-shards=N] <csvPath> <indexPath> [threads] [ramBufferSizeMB]");
+			System.exit(1);
+		}
+		if (positional.size() > 2) {
+			settings.setThreads(Integer.parseInt(positional.get(2)));
+		}
+		if (positional.size() > 3) {
+			settings.setRAMBufferSizeMB(Double.parseDouble(positional.get(3)));
+		}
+		new IndexCreation(positional.get(0), positional.get(1), settings);
 	}
 
 }
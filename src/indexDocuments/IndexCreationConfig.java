@@ -0,0 +1,101 @@
+package indexDocuments;
+
+import org.apache.lucene.index.IndexWriterConfig;
+
+// Settings of an IndexCreation run, chained the same way as IndexWriterConfig
+public class IndexCreationConfig {
+
+	private int threads = 1;
+	private double ramBufferSizeMB = IndexWriterConfig.DEFAULT_RAM_BUFFER_SIZE_MB;
+	private boolean incremental = false;
+	private FieldSchema schema = FieldSchema.defaultSchema();
+	private boolean indexSorted = false;
+	private int shards = 1;
+	private IndexCreation.ProgressListener progressListener;
+
+	// Number of worker threads building documents, 1 keeps the single-threaded path
+	public IndexCreationConfig setThreads(int threads) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("threads must be at least 1, got " + threads);
+		}
+		this.threads = threads;
+		return this;
+	}
+
+	public int getThreads() {
+		return threads;
+	}
+
+	// RAM the IndexWriter may buffer before flushing a segment
+	public IndexCreationConfig setRAMBufferSizeMB(double ramBufferSizeMB) {
+		if (ramBufferSizeMB <= 0) {
+			throw new IllegalArgumentException("ramBufferSizeMB must be positive, got " + ramBufferSizeMB);
+		}
+		this.ramBufferSizeMB = ramBufferSizeMB;
+		return this;
+	}
+
+	public double getRAMBufferSizeMB() {
+		return ramBufferSizeMB;
+	}
+
+	// Update an existing index with only the rows that were added, changed or removed
+	// instead of rebuilding it. Falls back to a full build when there is no usable index yet.
+	public IndexCreationConfig setIncremental(boolean incremental) {
+		this.incremental = incremental;
+		return this;
+	}
+
+	public boolean isIncremental() {
+		return incremental;
+	}
+
+	// How the csv columns are indexed, changing it forces a full rebuild
+	public IndexCreationConfig setSchema(FieldSchema schema) {
+		if (schema == null) {
+			throw new IllegalArgumentException("schema must not be null");
+		}
+		this.schema = schema;
+		return this;
+	}
+
+	public FieldSchema getSchema() {
+		return schema;
+	}
+
+	// Keep the documents of every segment ordered by artist and song,
+	// so alphabetical searches can stop collecting after the first page of hits
+	public IndexCreationConfig setIndexSorted(boolean indexSorted) {
+		this.indexSorted = indexSorted;
+		return this;
+	}
+
+	public boolean isIndexSorted() {
+		return indexSorted;
+	}
+
+	// Number of index directories the songs are partitioned over by id, 1 keeps a single index.
+	// A searcher queries the shards concurrently, changing the count forces a full rebuild.
+	public IndexCreationConfig setShards(int shards) {
+		if (shards < 1) {
+			throw new IllegalArgumentException("shards must be at least 1, got " + shards);
+		}
+		this.shards = shards;
+		return this;
+	}
+
+	public int getShards() {
+		return shards;
+	}
+
+	// Told how far through the csv the build or update has read, about once per percent. Null for none.
+	public IndexCreationConfig setProgressListener(IndexCreation.ProgressListener progressListener) {
+		this.progressListener = progressListener;
+		return this;
+	}
+
+	public IndexCreation.ProgressListener getProgressListener() {
+		return progressListener;
+	}
+
+}
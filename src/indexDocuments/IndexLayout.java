@@ -0,0 +1,69 @@
+package indexDocuments;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+// Where the songs of an index live. A sharded index spreads them by id over the directories shard-0 to shard-N-1
+// below the index directory, which then holds no songs itself, only the commit recording the schema and shard count.
+public final class IndexLayout {
+
+	static final String SHARDS_KEY = "index.shards";
+	static final String GENERATIONS_KEY = "index.shard.generations";	// the shard commits the index directory holds
+
+	private IndexLayout() {
+	}
+
+	// Number of shards recorded in the commit data of the index directory, 1 for an unsharded index
+	public static int shardCount(Map<String, String> commitData) {
+		String shards = commitData.get(SHARDS_KEY);
+		return shards == null ? 1 : Integer.parseInt(shards);
+	}
+
+	public static Path shardPath(Path indexPath, int shard) {
+		return indexPath.resolve("shard-" + shard);
+	}
+
+	// Directories of the shards recorded in the commit data of the index directory, none for an unsharded index
+	public static List<Path> shardPaths(Path indexPath, Map<String, String> commitData) {
+		int shards = shardCount(commitData);
+		List<Path> paths = new ArrayList<>();
+		for (int i = 0; shards > 1 && i < shards; i++) {
+			paths.add(shardPath(indexPath, i));
+		}
+		return paths;
+	}
+
+	// Commit generation of every shard when the index directory was last committed, null for indexes built before
+	// they were recorded. The shards commit first, so a shard ahead of its generation is in the middle of an update.
+	public static long[] shardGenerations(Map<String, String> commitData) {
+		String generations = commitData.get(GENERATIONS_KEY);
+		if (generations == null) {
+			return null;
+		}
+		String[] values = generations.split(",");
+		long[] parsed = new long[values.length];
+		for (int i = 0; i < values.length; i++) {
+			parsed[i] = Long.parseLong(values[i]);
+		}
+		return parsed;
+	}
+
+	static String formatGenerations(long[] generations) {
+		StringBuilder formatted = new StringBuilder();
+		for (long generation : generations) {
+			if (formatted.length() > 0) {
+				formatted.append(',');
+			}
+			formatted.append(generation);
+		}
+		return formatted.toString();
+	}
+
+	// Ids are well mixed hashes, so their remainder spreads songs evenly
+	static int shard(long id, int shards) {
+		return (int) Long.remainderUnsigned(id, shards);
+	}
+
+}
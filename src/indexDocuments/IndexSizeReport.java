@@ -0,0 +1,300 @@
+package indexDocuments;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.lucene.index.BinaryDocValues;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.DocValuesType;
+import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.index.IndexOptions;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.SegmentCommitInfo;
+import org.apache.lucene.index.SegmentInfos;
+import org.apache.lucene.index.SortedDocValues;
+import org.apache.lucene.index.StoredFieldVisitor;
+import org.apache.lucene.index.StoredFields;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.util.IOUtils;
+import org.apache.lucene.util.UnicodeUtil;
+
+// On-disk size of an index broken down per field.
+// Lucene keeps each data structure (postings, stored fields, doc values, ...) in its own files shared by all
+// fields, so the files are measured exactly, including the ones packed in compound files, and the bytes of each
+// structure are split over the fields in proportion to how much each field puts into it.
+public class IndexSizeReport {
+
+	public enum Structure {
+		POSTINGS("tim", "tip", "tmd", "doc", "pos", "pay"),
+		STORED("fdt", "fdx", "fdm"),
+		DOC_VALUES("dvd", "dvm"),
+		NORMS("nvd", "nvm"),
+		TERM_VECTORS("tvd", "tvx", "tvm"),
+		POINTS("kdd", "kdi", "kdm"),
+		OTHER;
+
+		private final String[] extensions;
+
+		Structure(String... extensions) {
+			this.extensions = extensions;
+		}
+
+		static Structure of(String fileName) {
+			String extension = fileName.substring(fileName.lastIndexOf('.') + 1);
+			for (Structure structure : values()) {
+				for (String candidate : structure.extensions) {
+					if (candidate.equals(extension)) {
+						return structure;
+					}
+				}
+			}
+			return OTHER;
+		}
+	}
+
+	private static final int STORED_FIELDS_SAMPLE = 1000;	// documents read per segment to weigh stored fields
+
+	private final Map<Structure, Long> structureBytes = new EnumMap<>(Structure.class);
+	private final Map<String, Map<Structure, Double>> fieldWeights = new TreeMap<>();
+	private int numDocs;
+
+	public IndexSizeReport(Directory directory) throws IOException {
+		this(List.of(directory));
+	}
+
+	// One report over several indexes, such as the index directory and the shards of a sharded index
+	public IndexSizeReport(List<Directory> directories) throws IOException {
+		for (Directory directory : directories) {
+			measureFiles(directory);
+			try (DirectoryReader reader = DirectoryReader.open(directory)) {
+				numDocs += reader.numDocs();
+				for (LeafReaderContext context : reader.leaves()) {
+					weighFields(context.reader());
+				}
+			}
+		}
+	}
+
+	private void measureFiles(Directory directory) throws IOException {
+		SegmentInfos infos = SegmentInfos.readLatestCommit(directory);
+		add(Structure.OTHER, directory.fileLength(infos.getSegmentsFileName()));
+		for (SegmentCommitInfo segment : infos) {
+			if (segment.info.getUseCompoundFile()) {
+				try (Directory compound = segment.info.getCodec().compoundFormat().getCompoundReader(directory, segment.info, IOContext.READONCE)) {
+					for (String file : compound.listAll()) {
+						add(Structure.of(file), compound.fileLength(file));
+					}
+				}
+				// the compound container and the files kept outside of it (.si, live docs, ...)
+				for (String file : segment.files()) {
+					if (file.endsWith(".cfs")) {
+						continue;
+					}
+					add(Structure.OTHER, directory.fileLength(file));
+				}
+			} else {
+				for (String file : segment.files()) {
+					add(Structure.of(file), directory.fileLength(file));
+				}
+			}
+		}
+	}
+
+	private void add(Structure structure, long bytes) {
+		structureBytes.merge(structure, bytes, Long::sum);
+	}
+
+	private void weighFields(LeafReader leaf) throws IOException {
+		for (FieldInfo field : leaf.getFieldInfos()) {
+			if (field.getIndexOptions() != IndexOptions.NONE) {
+				Terms terms = leaf.terms(field.name);
+				if (terms != null) {
+					double postings = Math.max(0, terms.getSumTotalTermFreq()) + Math.max(0, terms.getSumDocFreq());
+					weigh(field.name, Structure.POSTINGS, postings);
+					if (field.hasVectors()) {
+						weigh(field.name, Structure.TERM_VECTORS, postings);
+					}
+				}
+				if (field.hasNorms()) {
+					weigh(field.name, Structure.NORMS, leaf.maxDoc());
+				}
+			}
+			if (field.getDocValuesType() != DocValuesType.NONE) {
+				weigh(field.name, Structure.DOC_VALUES, docValuesBytes(leaf, field));
+			}
+			if (field.getPointDimensionCount() > 0) {
+				weigh(field.name, Structure.POINTS, leaf.maxDoc());
+			}
+		}
+		weighStoredFields(leaf);
+	}
+
+	// Unique values of sorted fields are written once, every other type costs about a long per document
+	private static double docValuesBytes(LeafReader leaf, FieldInfo field) throws IOException {
+		if (field.getDocValuesType() == DocValuesType.SORTED) {
+			SortedDocValues values = leaf.getSortedDocValues(field.name);
+			double bytes = leaf.maxDoc() * 4.0;
+			for (int ord = 0; ord < values.getValueCount(); ord++) {
+				bytes += values.lookupOrd(ord).length;
+			}
+			return bytes;
+		}
+		if (field.getDocValuesType() == DocValuesType.BINARY) {
+			BinaryDocValues values = leaf.getBinaryDocValues(field.name);
+			double bytes = 0;
+			for (int doc = values.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = values.nextDoc()) {
+				bytes += values.binaryValue().length;
+			}
+			return bytes;
+		}
+		return leaf.maxDoc() * 8.0;
+	}
+
+	private void weighStoredFields(LeafReader leaf) throws IOException {
+		StoredFields storedFields = leaf.storedFields();
+		int step = Math.max(1, leaf.maxDoc() / STORED_FIELDS_SAMPLE);
+		StoredFieldVisitor visitor = new StoredFieldVisitor() {
+			@Override
+			public Status needsField(FieldInfo fieldInfo) {
+				return Status.YES;
+			}
+
+			@Override
+			public void stringField(FieldInfo fieldInfo, String value) {
+				weigh(fieldInfo.name, Structure.STORED, UnicodeUtil.calcUTF16toUTF8Length(value, 0, value.length()));
+			}
+
+			@Override
+			public void binaryField(FieldInfo fieldInfo, byte[] value) {
+				weigh(fieldInfo.name, Structure.STORED, value.length);
+			}
+
+			@Override
+			public void intField(FieldInfo fieldInfo, int value) {
+				weigh(fieldInfo.name, Structure.STORED, Integer.BYTES);
+			}
+
+			@Override
+			public void longField(FieldInfo fieldInfo, long value) {
+				weigh(fieldInfo.name, Structure.STORED, Long.BYTES);
+			}
+
+			@Override
+			public void floatField(FieldInfo fieldInfo, float value) {
+				weigh(fieldInfo.name, Structure.STORED, Float.BYTES);
+			}
+
+			@Override
+			public void doubleField(FieldInfo fieldInfo, double value) {
+				weigh(fieldInfo.name, Structure.STORED, Double.BYTES);
+			}
+		};
+		for (int doc = 0; doc < leaf.maxDoc(); doc += step) {
+			storedFields.document(doc, visitor);
+		}
+	}
+
+	private void weigh(String field, Structure structure, double weight) {
+		fieldWeights.computeIfAbsent(field, f -> new EnumMap<>(Structure.class)).merge(structure, weight, Double::sum);
+	}
+
+	public long getTotalBytes() {
+		long total = 0;
+		for (long bytes : structureBytes.values()) {
+			total += bytes;
+		}
+		return total;
+	}
+
+	public long getStructureBytes(Structure structure) {
+		return structureBytes.getOrDefault(structure, 0L);
+	}
+
+	// Estimated bytes of one structure spent on one field
+	public long getFieldBytes(String field, Structure structure) {
+		if (structure == Structure.OTHER) {
+			return 0;
+		}
+		double total = 0;
+		for (Map<Structure, Double> weights : fieldWeights.values()) {
+			total += weights.getOrDefault(structure, 0.0);
+		}
+		Map<Structure, Double> weights = fieldWeights.get(field);
+		if (total == 0 || weights == null) {
+			return 0;
+		}
+		return Math.round(getStructureBytes(structure) * weights.getOrDefault(structure, 0.0) / total);
+	}
+
+	public long getFieldBytes(String field) {
+		long bytes = 0;
+		for (Structure structure : Structure.values()) {
+			bytes += getFieldBytes(field, structure);
+		}
+		return bytes;
+	}
+
+	public void print(PrintStream out) {
+		out.printf("%d documents, %s on disk%n", numDocs, human(getTotalBytes()));
+		out.printf("%-14s", "field");
+		for (Structure structure : Structure.values()) {
+			if (structure != Structure.OTHER) {
+				out.printf("%14s", structure.name().toLowerCase());
+			}
+		}
+		out.printf("%14s%n", "total");
+		for (String field : fieldWeights.keySet()) {
+			out.printf("%-14s", field);
+			for (Structure structure : Structure.values()) {
+				if (structure != Structure.OTHER) {
+					out.printf("%14s", human(getFieldBytes(field, structure)));
+				}
+			}
+			out.printf("%14s%n", human(getFieldBytes(field)));
+		}
+		out.printf("%-14s%14s%n", "(index files)", human(getStructureBytes(Structure.OTHER)));
+	}
+
+	private static String human(long bytes) {
+		if (bytes < 1024) {
+			return bytes + " B";
+		}
+		if (bytes < 1024 * 1024) {
+			return String.format("%.1f KB", bytes / 1024.0);
+		}
+		return String.format("%.1f MB", bytes / (1024.0 * 1024.0));
+	}
+
+	// IndexSizeReport <indexPath>
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1) {
+			System.err.println("Usage: IndexSizeReport <indexPath>");
+			System.exit(1);
+		}
+		Path indexPath = Paths.get(args[0]);
+		List<Directory> directories = new ArrayList<>();
+		try {
+			directories.add(FSDirectory.open(indexPath));
+			// a sharded index keeps its songs in the shards, the index directory only its commit
+			for (Path shardPath : IndexLayout.shardPaths(indexPath, SegmentInfos.readLatestCommit(directories.get(0)).getUserData())) {
+				directories.add(FSDirectory.open(shardPath));
+			}
+			new IndexSizeReport(directories).print(System.out);
+		} finally {
+			IOUtils.close(directories);
+		}
+	}
+
+}
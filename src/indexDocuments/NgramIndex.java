@@ -0,0 +1,186 @@
+package indexDocuments;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.lucene.analysis.core.KeywordAnalyzer;
+import org.apache.lucene.document.BinaryDocValuesField;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.MultiBits;
+import org.apache.lucene.index.MultiTerms;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.BytesRefBuilder;
+import org.apache.lucene.util.IOUtils;
+import org.apache.lucene.util.StringHelper;
+
+// Character n-grams of the distinct artist and song terms, in the ngrams directory below the song index.
+// A misspelled term shares most of its n-grams with the one meant, so the few terms sharing enough of them
+// are the only ones worth an edit distance check, however large the vocabulary grows.
+// One document per term and field, kept in step with the terms of the song index after every commit. Its n-grams
+// are indexed together with the field and length of the term, so looking up the terms of one length reads
+// only their short postings and no filter over the whole vocabulary is needed.
+public final class NgramIndex {
+
+	public static final int GRAM = 3;
+	public static final int MIN_TERM_LENGTH = 3;	// shorter terms are never corrected
+	public static final String TERM = "term";		// binary doc values, read faster than a stored field
+	public static final String GRAMS = "grams";		// see gramKey
+	static final String KEY = "key";				// field/term, to find the document of a term again
+	static final String[] FIELDS = { FieldSchema.ARTIST, FieldSchema.SONG };
+
+	private NgramIndex() {
+	}
+
+	public static Path path(Path indexPath) {
+		return indexPath.resolve("ngrams");
+	}
+
+	// Distinct n-grams of a term, padded so that its first and last characters weigh as much as the others
+	public static List<String> grams(String term) {
+		String padded = "^" + term + "$";
+		List<String> grams = new ArrayList<>();
+		int[] codePoints = padded.codePoints().toArray();
+		for (int i = 0; i + GRAM <= codePoints.length; i++) {
+			String gram = new String(codePoints, i, GRAM);
+			if (!grams.contains(gram)) {
+				grams.add(gram);
+			}
+		}
+		return grams;
+	}
+
+	// Length in code points, the terms within k edits of a term differ in length by at most k
+	public static int length(String term) {
+		return term.codePointCount(0, term.length());
+	}
+
+	// The term an n-gram of a song field term of some length is indexed under
+	public static String gramKey(String field, int length, String gram) {
+		return field + '/' + length + '/' + gram;
+	}
+
+	// Bring the n-grams in directory in line with the artist and song terms the songs hold now. A rebuild writes
+	// all of them and merges them into one segment, an update only adds the new terms and deletes the ones gone,
+	// walking both sorted term dictionaries side by side, and commits nothing when none changed.
+	static void update(IndexReader songs, Directory directory, boolean rebuild) throws IOException {
+		DirectoryReader held = null;
+		try {
+			if (!rebuild && DirectoryReader.indexExists(directory)) {
+				held = DirectoryReader.open(directory);
+				// written before the documents had keys: the terms cannot be matched up
+				rebuild = held.numDocs() > 0 && MultiTerms.getTerms(held, KEY) == null;
+			} else {
+				rebuild = true;
+			}
+			IndexWriterConfig config = new IndexWriterConfig(new KeywordAnalyzer());
+			config.setOpenMode(rebuild ? IndexWriterConfig.OpenMode.CREATE : IndexWriterConfig.OpenMode.APPEND);
+			try (IndexWriter writer = new IndexWriter(directory, config)) {
+				boolean changed = rebuild;
+				for (String field : FIELDS) {
+					changed |= update(songs, rebuild ? null : held, field, writer);
+				}
+				if (rebuild) {
+					writer.forceMerge(1);	// small, and read by every typo-tolerant search
+				}
+				if (changed) {
+					writer.commit();
+				} else {
+					writer.rollback();
+				}
+			}
+		} finally {
+			IOUtils.close(held);
+		}
+	}
+
+	// Add the terms of field missing from held and delete the ones the songs no longer hold, true if any were
+	private static boolean update(IndexReader songs, IndexReader held, String field, IndexWriter writer) throws IOException {
+		BytesRef prefix = new BytesRef(field + '/');
+		Terms songTerms = MultiTerms.getTerms(songs, field);
+		Terms heldTerms = held == null ? null : MultiTerms.getTerms(held, KEY);
+		TermsEnum terms = songTerms == null ? TermsEnum.EMPTY : songTerms.iterator();
+		TermsEnum keys = heldTerms == null ? TermsEnum.EMPTY : heldTerms.iterator();
+		Bits songsLive = MultiBits.getLiveDocs(songs);
+		Bits heldLive = held == null ? null : MultiBits.getLiveDocs(held);
+		BytesRefBuilder key = new BytesRefBuilder();
+		boolean changed = false;
+
+		BytesRef term = nextTerm(terms, songsLive);
+		BytesRef heldKey = keys.seekCeil(prefix) == TermsEnum.SeekStatus.END ? null : keys.term();
+		while (term != null || (heldKey != null && StringHelper.startsWith(heldKey, prefix))) {
+			int order = 1;
+			if (term != null) {
+				key.copyBytes(prefix);
+				key.append(term);
+				order = heldKey == null || !StringHelper.startsWith(heldKey, prefix) ? -1 : key.get().compareTo(heldKey);
+			}
+			boolean present = order >= 0 && isLive(keys, heldLive);
+			if (order < 0 || (order == 0 && !present)) {
+				writer.addDocument(document(field, term, key.toBytesRef()));
+				changed = true;
+			} else if (order > 0 && present) {
+				writer.deleteDocuments(new Term(KEY, BytesRef.deepCopyOf(heldKey)));
+				changed = true;
+			}
+			if (order <= 0) {
+				term = nextTerm(terms, songsLive);
+			}
+			if (order >= 0) {
+				heldKey = keys.next();
+			}
+		}
+		return changed;
+	}
+
+	// The next term long enough to be corrected that a live song still holds
+	private static BytesRef nextTerm(TermsEnum terms, Bits liveDocs) throws IOException {
+		for (BytesRef bytes = terms.next(); bytes != null; bytes = terms.next()) {
+			if (length(bytes.utf8ToString()) >= MIN_TERM_LENGTH && isLive(terms, liveDocs)) {
+				return bytes;
+			}
+		}
+		return null;
+	}
+
+	// The terms of deleted documents stay in the dictionary until their segments are merged
+	private static boolean isLive(TermsEnum terms, Bits liveDocs) throws IOException {
+		if (liveDocs == null) {
+			return true;
+		}
+		PostingsEnum postings = terms.postings(null, PostingsEnum.NONE);
+		for (int doc = postings.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = postings.nextDoc()) {
+			if (liveDocs.get(doc)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static Document document(String field, BytesRef bytes, BytesRef key) {
+		String term = bytes.utf8ToString();
+		int length = length(term);
+		Document doc = new Document();
+		doc.add(new BinaryDocValuesField(TERM, BytesRef.deepCopyOf(bytes)));
+		doc.add(new StringField(KEY, key, Field.Store.NO));
+		for (String gram : grams(term)) {
+			doc.add(new StringField(GRAMS, gramKey(field, length, gram), Field.Store.NO));
+		}
+		return doc;
+	}
+
+}
@@ -0,0 +1,176 @@
+package indexDocuments;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.FieldType;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.SortedDocValuesField;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.CharsRefBuilder;
+
+// Reusable document for one thread, laid out by a FieldSchema:
+// the fields are created once and only their values change per row
+final class SongDocument {
+
+	// Stable key of a row, a hash of artist and song, indexed as a term and kept as a doc value
+	static final String ID = FieldSchema.ID;
+	// Hash of the whole row, tells whether an existing song changed since it was indexed
+	static final String FINGERPRINT = "fingerprint";
+	// Layout of the fields outside the schema, recorded in the commit: an index of another layout is rebuilt
+	static final String LAYOUT_KEY = "document.layout";
+	static final String LAYOUT = "3";	// 2: stored snippet, 3: exact artist term
+
+	private final CharsRefBuilder chars = new CharsRefBuilder();
+	private final Document doc = new Document();
+	private final int artistColumn;
+	private final int songColumn;
+	private final int snippetColumn;	// lyrics column, -1 if the schema has no lyrics
+	private final int[] columns;		// csv column of each schema field
+	private final Field[] values;		// indexed and/or stored part of each schema field, or null
+	private final Field[] sortValues;	// doc values part of each schema field, or null
+	private final BytesRef truncated = new BytesRef();
+	private final Field idTerm = new StringField(ID, "", Field.Store.YES);
+	private final Field idValue = new NumericDocValuesField(ID, 0L);
+	private final Field fingerprint = new NumericDocValuesField(FINGERPRINT, 0L);
+	private final Field snippet = new StoredField(FieldSchema.SNIPPET, "");
+	private final Field artistExact = new StringField(FieldSchema.ARTIST_EXACT, "", Field.Store.NO);
+
+	SongDocument(FieldSchema schema) {
+		this.artistColumn = schema.getField(FieldSchema.ARTIST).getColumn();
+		this.songColumn = schema.getField(FieldSchema.SONG).getColumn();
+		FieldSchema.FieldSpec lyrics = schema.getField(FieldSchema.LYRICS);
+		this.snippetColumn = lyrics != null ? lyrics.getColumn() : -1;
+		int size = schema.getFields().size();
+		this.columns = new int[size];
+		this.values = new Field[size];
+		this.sortValues = new Field[size];
+		int i = 0;
+		for (FieldSchema.FieldSpec spec : schema.getFields()) {
+			columns[i] = spec.getColumn();
+			FieldType type = spec.fieldType();
+			if (type != null) {
+				values[i] = new Field(spec.getName(), "", type);
+				doc.add(values[i]);
+			}
+			// SortedDocValuesField allows for sorting and faceting on the field
+			if (spec.hasDocValues()) {
+				sortValues[i] = new SortedDocValuesField(spec.getName(), new BytesRef());
+				doc.add(sortValues[i]);
+			}
+			i++;
+		}
+
+		// searches drill down into one artist with a filter on this term
+		doc.add(artistExact);
+
+		// keys used by incremental updates
+		doc.add(idTerm);
+		doc.add(idValue);
+		doc.add(fingerprint);
+
+		// result lists show the snippet, so searches need not load the full lyrics
+		if (snippetColumn >= 0) {
+			doc.add(snippet);
+		}
+	}
+
+	Document fill(BytesRef[] row) {
+		long id = id(row);
+		return fill(row, id, fingerprint(id, row));
+	}
+
+	// The doc values keep the raw UTF-8 bytes, the text fields get them decoded once
+	Document fill(BytesRef[] row, long id, long fingerprint) {
+		String lyrics = null;
+		for (int i = 0; i < columns.length; i++) {
+			BytesRef value = row[columns[i]];
+			if (values[i] != null) {
+				String text = decode(value);
+				values[i].setStringValue(text);
+				if (columns[i] == snippetColumn) {
+					lyrics = text;
+				}
+			}
+			if (sortValues[i] != null) {
+				sortValues[i].setBytesValue(truncate(value));
+			}
+		}
+		if (snippetColumn >= 0) {
+			snippet.setStringValue(FieldSchema.snippet(lyrics != null ? lyrics : decode(row[snippetColumn])));
+		}
+		this.artistExact.setStringValue(decode(truncate(row[artistColumn])));	// the name the doc values give back
+		this.idTerm.setStringValue(idString(id));
+		this.idValue.setLongValue(id);
+		this.fingerprint.setLongValue(fingerprint);
+		return doc;
+	}
+
+	private String decode(BytesRef utf8) {
+		chars.copyUTF8Bytes(utf8);
+		return chars.toString();
+	}
+
+	// Sorted doc values are limited in length, sorting only needs the prefix anyway
+	private BytesRef truncate(BytesRef value) {
+		if (value.length <= IndexWriter.MAX_TERM_LENGTH) {
+			return value;
+		}
+		truncated.bytes = value.bytes;
+		truncated.offset = value.offset;
+		truncated.length = IndexWriter.MAX_TERM_LENGTH;
+		return truncated;
+	}
+
+	long id(BytesRef[] row) {
+		return id(row[artistColumn], row[songColumn]);
+	}
+
+	static long id(BytesRef artist, BytesRef song) {
+		long h = hash(FNV_OFFSET_BASIS, artist);
+		h = (h ^ 0xFF) * FNV_PRIME;		// separator, so ("ab", "c") and ("a", "bc") differ
+		return mix(hash(h, song));
+	}
+
+	// Hash of every column of the row, seeded with the id
+	static long fingerprint(long id, BytesRef[] row) {
+		long h = id;
+		for (BytesRef column : row) {
+			h = (hash(h, column) ^ 0xFF) * FNV_PRIME;
+		}
+		return mix(h);
+	}
+
+	static String idString(long id) {
+		return Long.toHexString(id);
+	}
+
+	static Term idTerm(long id) {
+		return new Term(ID, idString(id));
+	}
+
+	private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+	private static final long FNV_PRIME = 0x100000001b3L;
+
+	// 64-bit FNV-1a over the bytes
+	private static long hash(long h, BytesRef bytes) {
+		for (int i = bytes.offset, end = bytes.offset + bytes.length; i < end; i++) {
+			h = (h ^ (bytes.bytes[i] & 0xFF)) * FNV_PRIME;
+		}
+		return h;
+	}
+
+	// murmur3 finalizer, spreads the FNV bits over the whole word
+	private static long mix(long h) {
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb3fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+
+}
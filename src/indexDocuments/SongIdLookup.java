@@ -0,0 +1,98 @@
+package indexDocuments;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.FixedBitSet;
+
+// Looks up songs of an existing index by id and remembers which documents were matched,
+// so that the songs missing from the csv can be found afterwards without holding all ids in memory
+final class SongIdLookup {
+
+	private final List<LeafReaderContext> leaves;
+	private final TermsEnum[] termsEnums;
+	private final FixedBitSet seen;
+	private PostingsEnum postings;
+	private long fingerprint;
+	private boolean repeated;
+
+	SongIdLookup(IndexReader reader) throws IOException {
+		this.leaves = reader.leaves();
+		this.termsEnums = new TermsEnum[leaves.size()];
+		for (int i = 0; i < leaves.size(); i++) {
+			Terms terms = leaves.get(i).reader().terms(SongDocument.ID);
+			termsEnums[i] = terms == null ? null : terms.iterator();
+		}
+		this.seen = new FixedBitSet(Math.max(1, reader.maxDoc()));
+	}
+
+	// Find the live documents with this id and mark them all as seen, the fingerprint of the first one is then
+	// available. Indexes built before ids were kept unique may hold a song repeated in the csv more than once.
+	boolean find(long id) throws IOException {
+		BytesRef term = new BytesRef(SongDocument.idString(id));
+		boolean found = false;
+		repeated = false;
+		for (int i = 0; i < leaves.size(); i++) {
+			TermsEnum termsEnum = termsEnums[i];
+			if (termsEnum == null || !termsEnum.seekExact(term)) {
+				continue;
+			}
+			LeafReader leaf = leaves.get(i).reader();
+			Bits liveDocs = leaf.getLiveDocs();
+			postings = termsEnum.postings(postings, PostingsEnum.NONE);
+			for (int doc = postings.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = postings.nextDoc()) {
+				if (liveDocs != null && !liveDocs.get(doc)) {
+					continue;
+				}
+				repeated |= seen.getAndSet(leaves.get(i).docBase + doc);
+				if (!found) {
+					NumericDocValues fingerprints = leaf.getNumericDocValues(SongDocument.FINGERPRINT);
+					fingerprint = fingerprints != null && fingerprints.advanceExact(doc) ? fingerprints.longValue() : 0L;
+					found = true;
+				}
+			}
+		}
+		return found;
+	}
+
+	long fingerprint() {
+		return fingerprint;
+	}
+
+	// Whether the song found last had already been found before, for a row repeated in the csv
+	boolean repeated() {
+		return repeated;
+	}
+
+	// Call back with the id of every live document that find() never matched
+	void forEachUnseen(IdConsumer consumer) throws IOException {
+		for (LeafReaderContext context : leaves) {
+			LeafReader leaf = context.reader();
+			Bits liveDocs = leaf.getLiveDocs();
+			NumericDocValues ids = leaf.getNumericDocValues(SongDocument.ID);
+			if (ids == null) {
+				continue;
+			}
+			for (int doc = ids.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = ids.nextDoc()) {
+				if ((liveDocs == null || liveDocs.get(doc)) && !seen.get(context.docBase + doc)) {
+					consumer.accept(ids.longValue());
+				}
+			}
+		}
+	}
+
+	interface IdConsumer {
+		void accept(long id) throws IOException;
+	}
+
+}
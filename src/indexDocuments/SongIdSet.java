@@ -0,0 +1,51 @@
+package indexDocuments;
+
+// Ids of the songs met so far in a csv, so that of the rows repeating a song only the first is indexed.
+// Open addressing over a long array, 16 to 32 bytes per song: a boxed set would take several times more.
+final class SongIdSet {
+
+	private long[] slots = new long[1024];	// 0 marks a free slot, the id 0 is kept apart
+	private int size;
+	private boolean containsZero;
+
+	// True if the id was not in the set yet
+	boolean add(long id) {
+		if (id == 0) {
+			boolean added = !containsZero;
+			containsZero = true;
+			return added;
+		}
+		if (size * 2 >= slots.length) {
+			grow();
+		}
+		if (!insert(slots, id)) {
+			return false;
+		}
+		size++;
+		return true;
+	}
+
+	private static boolean insert(long[] slots, long id) {
+		int mask = slots.length - 1;
+		for (int i = (int) (id ^ (id >>> 32)) & mask; ; i = (i + 1) & mask) {	// ids are well mixed hashes
+			if (slots[i] == id) {
+				return false;
+			}
+			if (slots[i] == 0) {
+				slots[i] = id;
+				return true;
+			}
+		}
+	}
+
+	private void grow() {
+		long[] grown = new long[slots.length * 2];
+		for (long id : slots) {
+			if (id != 0) {
+				insert(grown, id);
+			}
+		}
+		slots = grown;
+	}
+
+}
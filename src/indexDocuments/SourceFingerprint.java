@@ -0,0 +1,78 @@
+package indexDocuments;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.zip.CRC32C;
+
+// Size, modification time and CRC32C checksum of the csv an index was built from, recorded with its commit.
+// The csv still matches when its size and time are the same. When only the time differs the checksum
+// decides, so a csv that was copied or touched without changing does not count as a new one.
+final class SourceFingerprint {
+
+	private static final String SIZE_KEY = "source.size";
+	private static final String MODIFIED_KEY = "source.modified";	// epoch millis
+	private static final String CHECKSUM_KEY = "source.crc32c";
+	private static final int BUFFER_SIZE = 1 << 20;
+
+	private final long size;
+	private final long modified;
+	private final long checksum;
+
+	private SourceFingerprint(long size, long modified, long checksum) {
+		this.size = size;
+		this.modified = modified;
+		this.checksum = checksum;
+	}
+
+	// Reads the whole file, at disk speed: the checksum is computed by the CPU's CRC32C instruction
+	static SourceFingerprint of(Path csv) throws IOException {
+		BasicFileAttributes attributes = Files.readAttributes(csv, BasicFileAttributes.class);
+		return new SourceFingerprint(attributes.size(), attributes.lastModifiedTime().toMillis(), checksum(csv));
+	}
+
+	private static long checksum(Path csv) throws IOException {
+		CRC32C crc = new CRC32C();
+		ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+		try (FileChannel channel = FileChannel.open(csv, StandardOpenOption.READ)) {
+			while (channel.read(buffer) >= 0) {
+				buffer.flip();
+				crc.update(buffer);
+				buffer.clear();
+			}
+		}
+		return crc.getValue();
+	}
+
+	// Whether the csv still holds what was indexed
+	boolean matches(Path csv) throws IOException {
+		BasicFileAttributes attributes = Files.readAttributes(csv, BasicFileAttributes.class);
+		if (attributes.size() != size) {
+			return false;
+		}
+		return attributes.lastModifiedTime().toMillis() == modified || checksum(csv) == checksum;
+	}
+
+	void addTo(Map<String, String> commitData) {
+		commitData.put(SIZE_KEY, Long.toString(size));
+		commitData.put(MODIFIED_KEY, Long.toString(modified));
+		commitData.put(CHECKSUM_KEY, Long.toString(checksum));
+	}
+
+	// The csv recorded in the commit data, null for indexes built before it was recorded
+	static SourceFingerprint fromCommitData(Map<String, String> commitData) {
+		String size = commitData.get(SIZE_KEY);
+		String modified = commitData.get(MODIFIED_KEY);
+		String checksum = commitData.get(CHECKSUM_KEY);
+		if (size == null || modified == null || checksum == null) {
+			return null;
+		}
+		return new SourceFingerprint(Long.parseLong(size), Long.parseLong(modified), Long.parseLong(checksum));
+	}
+
+}
@@ -0,0 +1,123 @@
+package metrics;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.math.BigDecimal;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+// Process-wide registry of the stage histograms and counters, and of sources of gauges such as open searchers.
+// Instrumented classes keep the histograms and counters they record to in static fields: the registry is only
+// consulted when they are created and when metrics are read, through writeText or the JMX bean.
+public final class Metrics {
+
+    static final String OBJECT_NAME = "informationretrieval:type=Metrics";
+    private static final double[] PERCENTILES = { 50, 90, 99, 99.9 };
+
+    private static final Map<String, LatencyHistogram> histograms = new ConcurrentSkipListMap<>();
+    private static final Map<String, AtomicLong> counters = new ConcurrentSkipListMap<>();
+    private static final Set<MetricsSource> sources = new CopyOnWriteArraySet<>();
+
+    static {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new MetricsMBean(), new ObjectName(OBJECT_NAME));
+        } catch (JMException | RuntimeException e) {
+            e.printStackTrace();  // metrics are still recorded and served as text
+        }
+    }
+
+    private Metrics() {
+    }
+
+    // Gauges read when metrics are, e.g. cache and segment statistics of one searcher
+    public interface MetricsSource {
+        void collect(Map<String, Long> gauges);
+    }
+
+    public static LatencyHistogram histogram(String name) {
+        return histograms.computeIfAbsent(name, key -> new LatencyHistogram());
+    }
+
+    public static AtomicLong counter(String name) {
+        return counters.computeIfAbsent(name, key -> new AtomicLong());
+    }
+
+    public static void register(MetricsSource source) {
+        sources.add(source);
+    }
+
+    public static void unregister(MetricsSource source) {
+        sources.remove(source);
+    }
+
+    // Current gauge values, summed over sources reporting the same name
+    public static Map<String, Long> gauges() {
+        Map<String, Long> gauges = new TreeMap<>();
+        for (MetricsSource source : sources) {
+            Map<String, Long> collected = new TreeMap<>();
+            try {
+                source.collect(collected);
+            } catch (RuntimeException e) {
+                continue;  // a source closing meanwhile
+            }
+            collected.forEach((name, value) -> gauges.merge(name, value, Long::sum));
+        }
+        return gauges;
+    }
+
+    // Every value as a flat name, histograms in milliseconds: what the JMX bean shows as attributes
+    public static Map<String, Number> values() {
+        Map<String, Number> values = new TreeMap<>();
+        histograms.forEach((name, histogram) -> {
+            LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+            values.put(name + "_count", snapshot.getCount());
+            values.put(name + "_mean_ms", snapshot.getMeanNanos() / 1e6);
+            for (double percentile : PERCENTILES) {
+                values.put(name + "_p" + percentileLabel(percentile).replace('.', '_') + "_ms", snapshot.getPercentileNanos(percentile) / 1e6);
+            }
+            values.put(name + "_max_ms", snapshot.getMaxNanos() / 1e6);
+        });
+        counters.forEach((name, counter) -> values.put(name, counter.get()));
+        values.putAll(gauges());
+        return values;
+    }
+
+    // Prometheus text exposition format, histograms as summaries in seconds
+    public static void writeText(Appendable out) throws IOException {
+        for (Map.Entry<String, LatencyHistogram> entry : histograms.entrySet()) {
+            String name = entry.getKey() + "_seconds";
+            LatencyHistogram.Snapshot snapshot = entry.getValue().snapshot();
+            out.append("# TYPE ").append(name).append(" summary\n");
+            for (double percentile : PERCENTILES) {
+                out.append(name).append("{quantile=\"").append(BigDecimal.valueOf(percentile).movePointLeft(2).stripTrailingZeros().toPlainString()).append("\"} ")
+                        .append(seconds(snapshot.getPercentileNanos(percentile))).append('\n');
+            }
+            out.append(name).append("_sum ").append(seconds(snapshot.getSumNanos())).append('\n');
+            out.append(name).append("_count ").append(Long.toString(snapshot.getCount())).append('\n');
+        }
+        for (Map.Entry<String, AtomicLong> entry : counters.entrySet()) {
+            out.append("# TYPE ").append(entry.getKey()).append(" counter\n");
+            out.append(entry.getKey()).append(' ').append(Long.toString(entry.getValue().get())).append('\n');
+        }
+        for (Map.Entry<String, Long> entry : gauges().entrySet()) {
+            out.append("# TYPE ").append(entry.getKey()).append(" gauge\n");
+            out.append(entry.getKey()).append(' ').append(Long.toString(entry.getValue())).append('\n');
+        }
+    }
+
+    private static String seconds(long nanos) {
+        return String.format(Locale.ROOT, "%.9f", nanos / 1e9);
+    }
+
+    private static String percentileLabel(double percentile) {
+        return percentile == Math.rint(percentile) ? Long.toString((long) percentile) : Double.toString(percentile);
+    }
+}
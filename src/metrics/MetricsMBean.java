@@ -0,0 +1,63 @@
+package metrics;
+
+import java.util.Map;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+
+// Read-only JMX view of Metrics.values(), one attribute per value. Stages and searchers may register
+// after a JMX client first looked, so the attributes are listed anew every time.
+final class MetricsMBean implements DynamicMBean {
+
+    @Override
+    public Object getAttribute(String name) throws AttributeNotFoundException {
+        Number value = Metrics.values().get(name);
+        if (value == null) {
+            throw new AttributeNotFoundException(name);
+        }
+        return value;
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] names) {
+        Map<String, Number> values = Metrics.values();
+        AttributeList attributes = new AttributeList();
+        for (String name : names) {
+            if (values.containsKey(name)) {
+                attributes.add(new Attribute(name, values.get(name)));
+            }
+        }
+        return attributes;
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        Map<String, Number> values = Metrics.values();
+        MBeanAttributeInfo[] attributes = new MBeanAttributeInfo[values.size()];
+        int i = 0;
+        for (Map.Entry<String, Number> entry : values.entrySet()) {
+            attributes[i++] = new MBeanAttributeInfo(entry.getKey(), entry.getValue().getClass().getName(), entry.getKey(), true, false, false);
+        }
+        return new MBeanInfo(getClass().getName(), "Search and indexing metrics", attributes, null, new MBeanOperationInfo[0], null);
+    }
+
+    @Override
+    public void setAttribute(Attribute attribute) {
+        throw new UnsupportedOperationException("Metrics are read-only");
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+        return new AttributeList();
+    }
+
+    @Override
+    public Object invoke(String action, Object[] params, String[] signature) {
+        throw new UnsupportedOperationException(action);
+    }
+}
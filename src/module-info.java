@@ -1,5 +1,6 @@
 module lucene {
 	requires org.apache.lucene.core;
+	requires org.apache.lucene.analysis.common;
 	requires org.apache.lucene.queryparser;
 	requires org.apache.lucene.sandbox;
 	requires org.apache.lucene.highlighter;
@@ -7,15 +8,21 @@ module lucene {
 	requires org.apache.lucene.suggest;
 	requires jdk.unsupported;
 	//requires transitive javafx.graphics;
-	requires javafx.base;
-    requires javafx.controls;
+	// only the window needs JavaFX, the search server runs without it
+	requires static javafx.base;
+    requires static javafx.controls;
     
-    requires javafx.fxml;
-	requires javafx.web;
-	requires jdk.jsobject;
+    requires static javafx.fxml;
+	requires static javafx.web;
+	requires static jdk.jsobject;
 	requires java.logging;
+	requires jdk.httpserver;
+	requires java.management;
     //requires javafx.graphics;
     opens presentation_results to javafx.fxml,javafx.graphics;
   
-    exports presentation_results;    
+    exports presentation_results;
+    exports indexDocuments;
+    exports searchDocuments;
+    exports metrics;    
 }
\ No newline at end of file
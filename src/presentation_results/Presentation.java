@@ -1,20 +1,24 @@
 package presentation_results;
 
-import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.function.Consumer;
 
-import org.apache.lucene.document.Document;
 import org.apache.lucene.queryparser.classic.ParseException;
-import org.apache.lucene.search.Sort;
-import org.apache.lucene.search.SortField;
-import org.apache.lucene.search.highlight.InvalidTokenOffsetsException;
+import org.apache.lucene.store.AlreadyClosedException;
 
+import indexDocuments.FieldSchema;
 import indexDocuments.IndexCreation;
-import javafx.animation.KeyFrame;
-import javafx.animation.Timeline;
+import indexDocuments.IndexCreationConfig;
 import javafx.application.Application;
 import javafx.application.Platform;
 import javafx.concurrent.Worker;
@@ -24,6 +28,7 @@ import javafx.scene.control.Button;
 import javafx.scene.control.CheckBox;
 import javafx.scene.control.ComboBox;
 import javafx.scene.control.Label;
+import javafx.scene.control.TextField;
 import javafx.scene.input.KeyCode;
 import javafx.scene.input.KeyEvent;
 import javafx.scene.layout.HBox;
@@ -33,10 +38,16 @@ import javafx.scene.text.Text;
 import javafx.scene.web.WebEngine;
 import javafx.scene.web.WebView;
 import javafx.stage.Stage;
-import javafx.util.Duration;
+import metrics.LatencyHistogram;
+import metrics.Metrics;
 import netscape.javascript.JSObject;
+import searchDocuments.ArtistFacets;
 import searchDocuments.DocumentsSearcher;
+import searchDocuments.DocumentsSearcherConfig;
 import searchDocuments.QueryHistory;
+import searchDocuments.SearchExecutor;
+import searchDocuments.SearchRequest;
+import searchDocuments.SongHit;
 
 public class Presentation extends Application {
     // Declaration of UI components
@@ -49,15 +60,32 @@ public class Presentation extends Application {
     private Button previousPageButton;
     private Button nextPageButton;
     private Label pageNumberLabel;
+    private TextField goToPageField;
     private int currentPage;
-    private DocumentsSearcher luceneSearch;
+    private final Deque<DocumentsSearcher.SearchResult> pageHistory = new ArrayDeque<>();  // pages of the current search, newest first
+    private volatile DocumentsSearcher luceneSearch;  // null until there is an index to search
     private QueryHistory qHistory;
+    private final SearchExecutor searchExecutor = new SearchExecutor();
+    private boolean updatingSuggestions;
     private int totalPages;
+    private boolean totalsExact;
     private CheckBox alphabeticalGroupingCheckBox;
+    private CheckBox typoTolerantCheckBox;
     private Label totalResultsLabel;
+    private Label indexStatusLabel;
+    private SearchRequest groupedRequest;  // grouped search on screen, null when not grouping
+    private ArtistFacets artistFacets;  // of groupedRequest, null until counted
     private static final String docPath = "inputFiles/spotify_1000_songs_.csv";
+    private static final String schemaPath = "inputFiles/song_schema.properties";
     private static final String songIndexPath = "indexFiles/songIndex";
     private static final String queryHistoryIndexPath = "indexFiles/QueryHistoryIndex";
+    private static final String SEARCH = "search";    // executor channels, a new task replaces the pending one
+    private static final String SUGGEST = "suggest";
+    private static final String ARTISTS = "artists";
+    private static final String SONG = "song";
+    private static final int TOP_ARTISTS = 20;  // artists listed above the results when grouping
+    private static final int WARM_UP_QUERIES = 50;  // most searched queries run before the first search
+    private static final LatencyHistogram SEARCH_RENDER = Metrics.histogram("search_render");  // building the result page
 
     public static void main(String[] args) throws IOException {
         launch(args);
@@ -65,15 +93,13 @@ public class Presentation extends Application {
 
     @Override
     public void start(Stage primaryStage) throws IOException {
-        // Check if the song index exists, if not, create it
-        File directory = new File(songIndexPath);
-        File[] files = directory.listFiles();
-        if (files == null || files.length == 0) {
-            IndexCreation indexCreation = new IndexCreation(docPath, songIndexPath);
-        }
-
+        // Search the song index as last committed while it is created, or brought up to date with the csv,
+        // in the background: a large csv no longer keeps the window from showing
+        Path schemaFile = Paths.get(schemaPath);
+        FieldSchema schema = Files.exists(schemaFile) ? FieldSchema.load(schemaFile) : FieldSchema.defaultSchema();
+        IndexCreationConfig indexSettings = new IndexCreationConfig().setIncremental(true).setIndexSorted(true).setSchema(schema)
+                .setProgressListener(this::showIndexProgress);
         try {
-            luceneSearch = new DocumentsSearcher(songIndexPath);
             qHistory = new QueryHistory(queryHistoryIndexPath);
         } catch (IOException e) {
             e.printStackTrace();
@@ -94,120 +120,218 @@ public class Presentation extends Application {
         artistCheckBox = new CheckBox("Artist");
         songCheckBox = new CheckBox("Song");
         alphabeticalGroupingCheckBox = new CheckBox("Alphabetical Grouping");
-        searchPanel.getChildren().addAll(searchField, searchButton, lyricsCheckBox, artistCheckBox, songCheckBox, alphabeticalGroupingCheckBox);
+        typoTolerantCheckBox = new CheckBox("Typo Tolerant");
+        searchPanel.getChildren().addAll(searchField, searchButton, lyricsCheckBox, artistCheckBox, songCheckBox, alphabeticalGroupingCheckBox, typoTolerantCheckBox);
         root.getChildren().add(searchPanel);
 
-        totalResultsLabel = new Label();
         // Result area for search results
         resultArea = new WebView();
         VBox.setVgrow(resultArea, Priority.ALWAYS);
         root.getChildren().add(resultArea);
 
-        // Pagination panel with previous and next buttons
+        // Pagination panel with previous and next buttons, the total results, and a field to jump to a page
         HBox paginationPanel = new HBox(10);
         previousPageButton = new Button("Previous");
         nextPageButton = new Button("Next");
         pageNumberLabel = new Label();
-        paginationPanel.getChildren().addAll(previousPageButton, nextPageButton, pageNumberLabel);
+        totalResultsLabel = new Label();  // a lower bound ends in "+"
+        goToPageField = new TextField();
+        goToPageField.setPromptText("Go to page");
+        goToPageField.setPrefColumnCount(6);
+        indexStatusLabel = new Label();
+        paginationPanel.getChildren().addAll(previousPageButton, nextPageButton, pageNumberLabel, totalResultsLabel, goToPageField, indexStatusLabel);
         root.getChildren().add(paginationPanel);
 
         setUpActions();
 
         primaryStage.setScene(new Scene(root, 800, 600));
         primaryStage.show();
+
+        updateIndexInBackground(indexSettings);
     }
 
-    private void setUpActions() {
-        // Action for the search button
-        searchButton.setOnAction(event -> {
+    private DocumentsSearcher openSearcher() throws IOException {
+        // one user at a time: every core may work on the same search
+        DocumentsSearcher searcher = new DocumentsSearcher(songIndexPath, new DocumentsSearcherConfig()
+                .setSearchThreads(Runtime.getRuntime().availableProcessors())
+                .setPreloadExtensions(DocumentsSearcherConfig.SEARCH_FILE_EXTENSIONS));
+        searcher.warmUp(qHistory.getTopQueries(WARM_UP_QUERIES));
+        return searcher;
+    }
+
+    // Checks the index against the csv, opens it, and builds or updates it on its own thread: checking may read
+    // the whole csv. Changed rows become searchable at the refresh after the commit. A rebuilt index may be
+    // analyzed differently, it gets a new searcher: the old one stops refreshing before the rebuild commits,
+    // and closes once the searches still using it are done.
+    private void updateIndexInBackground(IndexCreationConfig indexSettings) {
+        indexStatusLabel.setText("Checking the index...");
+        Thread thread = new Thread(() -> {
             try {
-                performSearch();
-            } catch (ParseException | IOException | InvalidTokenOffsetsException e) {
+                IndexCreation.Status indexStatus = IndexCreation.status(docPath, songIndexPath, indexSettings);
+                if (indexStatus != IndexCreation.Status.MISSING) {
+                    luceneSearch = openSearcher();
+                }
+                if (indexStatus == IndexCreation.Status.UP_TO_DATE) {
+                    Platform.runLater(() -> indexStatusLabel.setText(""));
+                    return;
+                }
+                Platform.runLater(() -> indexStatusLabel.setText(indexStatus == IndexCreation.Status.MISSING ? "Building the index..." : "Updating the index..."));
+                DocumentsSearcher previous = luceneSearch;
+                // a searcher opened before the n-grams existed cannot pick them up on refresh
+                boolean replace = previous == null || indexStatus != IndexCreation.Status.STALE || !previous.canTolerateTypos();
+                if (previous != null && replace) {
+                    previous.stopRefreshing();
+                }
+                new IndexCreation(docPath, songIndexPath, indexSettings);
+                if (!replace) {
+                    previous.refresh();
+                } else {
+                    luceneSearch = openSearcher();
+                    if (previous != null) {
+                        previous.close();
+                    }
+                }
+                Platform.runLater(() -> indexStatusLabel.setText(""));
+            } catch (IOException | RuntimeException e) {
                 e.printStackTrace();
+                Platform.runLater(() -> indexStatusLabel.setText(luceneSearch == null
+                        ? "Building the index failed" : "Updating the index failed, searching the last built one"));
             }
-        });
+        }, "index-update");
+        thread.setDaemon(true);  // the last commit stays intact when the window closes first
+        thread.start();
+    }
+
+    // Called on the build thread, about once per percent
+    private void showIndexProgress(long bytesRead, long bytesTotal) {
+        long percent = bytesTotal == 0 ? 100 : bytesRead * 100 / bytesTotal;
+        String action = luceneSearch == null ? "Building" : "Updating";
+        Platform.runLater(() -> indexStatusLabel.setText(action + " the index: " + percent + "%"));
+    }
+
+    @Override
+    public void stop() throws IOException {
+        // Let the searches still running finish before closing what they use
+        searchExecutor.close();
+        // Stop the background refresh and release the index
+        if (luceneSearch != null) {
+            luceneSearch.close();
+        }
+        // Commit the queries still waiting to be written
+        if (qHistory != null) {
+            qHistory.close();
+        }
+    }
+
+    private void setUpActions() {
+        // Action for the search button
+        searchButton.setOnAction(event -> performSearch());
 
         // Action for pressing Enter in the search field
         searchField.addEventHandler(KeyEvent.KEY_PRESSED, keyEvent -> {
             if (keyEvent.getCode() == KeyCode.ENTER) {
-                try {
-                    performSearch();
-                } catch (ParseException | IOException | InvalidTokenOffsetsException e) {
-                    e.printStackTrace();
-                }
+                performSearch();
             }
         });
 
         // Action for alphabeticalGroupingCheckBox
-        alphabeticalGroupingCheckBox.setOnAction(event -> {
-            try {
-                performSearch();
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
-        });
+        alphabeticalGroupingCheckBox.setOnAction(event -> performSearch());
+
+        // Action for typoTolerantCheckBox
+        typoTolerantCheckBox.setOnAction(event -> performSearch());
 
         // Action for the previous page button
-        previousPageButton.setOnAction(event -> {
-            try {
-                performPreviousPageSearch();
-            } catch (ParseException | IOException e) {
-                e.printStackTrace();
-            }
-        });
+        previousPageButton.setOnAction(event -> performPreviousPageSearch());
 
         // Action for the next page button
-        nextPageButton.setOnAction(event -> {
-            try {
-                performNextPageSearch();
-            } catch (ParseException | IOException | InvalidTokenOffsetsException e) {
-                e.printStackTrace();
-            }
-        });
+        nextPageButton.setOnAction(event -> performNextPageSearch());
 
-        // Initialize the Timeline for debouncing input
-        Timeline debounceTimeline = new Timeline();
-        debounceTimeline.setCycleCount(1); // Execute only once
+        // Action for pressing Enter in the go to page field
+        goToPageField.setOnAction(event -> performGoToPageSearch());
 
+        // Suggestions are answered from memory, so they follow every keystroke
         searchField.getEditor().textProperty().addListener((observable, oldValue, newValue) -> {
-            // Cancel any pending debounce
-            debounceTimeline.stop();
-
-            // Schedule a new debounce
-            debounceTimeline.getKeyFrames().clear();
-            debounceTimeline.getKeyFrames().add(new KeyFrame(Duration.millis(1500), event -> {
+            if (updatingSuggestions) {
+                return;  // replacing the items may echo a text change
+            }
+            if (newValue.isBlank()) {
+                searchExecutor.cancel(SUGGEST);
+                searchField.hide();
+                return;
+            }
+            runInBackground(SUGGEST, () -> qHistory.getQueriesSuggestions(newValue), suggestions -> {
+                if (!newValue.equals(searchField.getEditor().getText())) {
+                    return;  // typed on since
+                }
+                updatingSuggestions = true;
                 try {
-                    List<String> suggestions = qHistory.getQueriesSuggestions(newValue);
                     if (!suggestions.isEmpty()) {
-                        searchField.getItems().clear();
-                        searchField.getItems().addAll(suggestions);
+                        if (!searchField.getItems().equals(suggestions)) {
+                            searchField.getItems().setAll(suggestions);
+                        }
                         searchField.show();
                     } else {
                         searchField.hide();
                     }
-                } catch (IOException e) {
-                    e.printStackTrace();
+                } finally {
+                    updatingSuggestions = false;
                 }
-            }));
-            debounceTimeline.playFromStart();
+            });
         });
     }
 
+    // Runs a search off the JavaFX thread and shows its result back on it.
+    // A newer task on the same channel replaces this one, its result is then never shown.
+    private interface SearcherCall<T> {
+        T call(DocumentsSearcher searcher) throws Exception;
+    }
+
+    // Runs a call on the current searcher, holding a reference to it: a searcher replaced after a rebuild
+    // is only closed once the calls that started on it are done
+    private <T> T withSearcher(SearcherCall<T> call) throws Exception {
+        while (true) {
+            DocumentsSearcher searcher = luceneSearch;
+            if (searcher.tryIncRef()) {
+                try {
+                    return call.call(searcher);
+                } finally {
+                    searcher.decRef();
+                }
+            }
+            if (searcher == luceneSearch) {
+                throw new AlreadyClosedException("The song index is closed");
+            }
+            // replaced meanwhile: try the new one
+        }
+    }
+
+    private <T> void runInBackground(String channel, Callable<T> task, Consumer<T> onResult) {
+        searchExecutor.submit(channel, task).whenComplete((result, error) -> Platform.runLater(() -> {
+            if (error instanceof CancellationException) {
+                return;
+            }
+            if (error instanceof ParseException) {
+                showAlert(Alert.AlertType.WARNING, "Warning", "Invalid query: " + error.getMessage());
+            } else if (error != null) {
+                error.printStackTrace();
+            } else {
+                onResult.accept(result);
+            }
+        }));
+    }
+
     // Update this method to set the total pages
-    private void performSearch() throws ParseException, IOException, InvalidTokenOffsetsException {
+    private void performSearch() {
         String query = searchField.getEditor().getText();
         if (query.isEmpty()) {
             showAlert(Alert.AlertType.WARNING, "Warning", "Please enter a query.");
             return;
         }
-
-        Sort sort = null; // Define sort variable within the scope of the method
-        if (alphabeticalGroupingCheckBox.isSelected()) {
-            sort = new Sort(new SortField("artist", SortField.Type.STRING), new SortField("song", SortField.Type.STRING));
+        if (luceneSearch == null) {
+            showAlert(Alert.AlertType.INFORMATION, "Index", "The song index is still being built, please try again in a moment.");
+            return;
         }
 
-        luceneSearch.clearSearchHistory(); // Clear the search history
-        qHistory.addQueryToHistory(query); // Add query to the query history
         Set<String> fields = new HashSet<>();
         if (lyricsCheckBox.isSelected()) {
             fields.add("lyrics");
@@ -218,87 +342,148 @@ public class Presentation extends Application {
         if (songCheckBox.isSelected()) {
             fields.add("song");
         }
-        DocumentsSearcher.SearchResult result = luceneSearch.search(query, fields, alphabeticalGroupingCheckBox.isSelected());
+        // grouping sorts by artist and lists the artists with the most matches, see showArtistCounts
+        boolean grouping = alphabeticalGroupingCheckBox.isSelected();
+        // misspelled artists and songs also match, once the index has its n-grams
+        boolean typos = typoTolerantCheckBox.isSelected() && luceneSearch.canTolerateTypos();
+        searchExecutor.cancel(ARTISTS);  // of the search on screen, about to be replaced
+        runInBackground(SEARCH, () -> {
+            qHistory.addQueryToHistory(query); // Add query to the query history
+            return withSearcher(searcher -> searcher.search(new SearchRequest(query, fields, grouping, null, typos)));
+        }, result -> {
+            groupedRequest = grouping ? result.getRequest() : null;
+            artistFacets = null;
+            showFirstPage(result);
+            if (grouping) {
+                showArtistCounts(result.getRequest());
+            }
+        });
+    }
+
+    // Counting the artists visits every match, which would keep the page from stopping early: the first page
+    // shows without them, and a search of their own adds them once counted. The searcher caches its result.
+    private void showArtistCounts(SearchRequest request) {
+        runInBackground(ARTISTS, () -> withSearcher(searcher -> searcher.search(request, TOP_ARTISTS).getArtistFacets()), facets -> {
+            if (request.equals(groupedRequest) && !pageHistory.isEmpty()) {  // still the search on screen
+                artistFacets = facets;
+                updateResultArea(pageHistory.peek());
+            }
+        });
+    }
+
+    // Songs of one of the listed artists, or of all of them again. The artist list stays as it was.
+    private void showArtist(String artist) {
+        if (groupedRequest == null) {
+            return;
+        }
+        SearchRequest request = artist == null ? groupedRequest : groupedRequest.withArtist(artist);
+        runInBackground(SEARCH, () -> withSearcher(searcher -> searcher.search(request)), this::showFirstPage);
+    }
+
+    private void showFirstPage(DocumentsSearcher.SearchResult result) {
+        pageHistory.clear(); // Clear the pages of the previous search
+        pageHistory.push(result);
         updateResultArea(result);
         currentPage = 1;
-        totalPages = result.getTotalPages(); // Set total pages
-        totalResultsLabel.setText("Total Results: " + result.totalHits);
-        updatePageNumberLabel();
+        showTotals(result);
     }
 
     // Update this method to handle next page search
-    private void performNextPageSearch() throws ParseException, IOException, InvalidTokenOffsetsException {
-        if (currentPage < totalPages) {
-            String query = searchField.getEditor().getText();
-            Sort sort = null; // Define sort variable within the scope of the method
-            if (alphabeticalGroupingCheckBox.isSelected()) {
-                sort = new Sort(new SortField("artist", SortField.Type.STRING), new SortField("song", SortField.Type.STRING));
-            }
-            Set<String> fields = new HashSet<>();
-            if (lyricsCheckBox.isSelected()) {
-                fields.add("lyrics");
-            }
-            if (artistCheckBox.isSelected()) {
-                fields.add("artist");
-            }
-            if (songCheckBox.isSelected()) {
-                fields.add("song");
-            }
-            DocumentsSearcher.SearchResult result = luceneSearch.nextPage(query, fields, sort);
-            if (result != null) {
-                updateResultArea(result);
-                currentPage++; // Increment currentPage after updating the result area
-                totalResultsLabel.setText("Total Results: " + result.totalHits);
-                updatePageNumberLabel();
-            }
+    private void performNextPageSearch() {
+        if (!pageHistory.isEmpty() && pageHistory.peek().hasNextPage()) {
+            // the cursor of the page on screen carries the query, fields and sort it was searched with
+            String cursor = pageHistory.peek().getCursor();
+            runInBackground(SEARCH, () -> withSearcher(searcher -> searcher.nextPage(cursor)), result -> {
+                if (result != null) {
+                    pageHistory.push(result);
+                    updateResultArea(result);
+                    currentPage = result.getPage();
+                    showTotals(result);
+                }
+            });
         }
     }
 
     // Update this method to handle previous page search
-    private void performPreviousPageSearch() throws ParseException, IOException {
-        if (currentPage > 1) {
-            String query = searchField.getEditor().getText();
-            Sort sort = null; // Define sort variable within the scope of the method
-            if (alphabeticalGroupingCheckBox.isSelected()) {
-                sort = new Sort(new SortField("artist", SortField.Type.STRING), new SortField("song", SortField.Type.STRING));
-            }
-            Set<String> fields = new HashSet<>();
-            if (lyricsCheckBox.isSelected()) {
-                fields.add("lyrics");
-            }
-            if (artistCheckBox.isSelected()) {
-                fields.add("artist");
-            }
-            if (songCheckBox.isSelected()) {
-                fields.add("song");
-            }
-            DocumentsSearcher.SearchResult result = luceneSearch.prevPage(query, fields);
-            if (result != null) {
-                updateResultArea(result);
-                currentPage--; // Decrement currentPage after updating the result area
-                totalResultsLabel.setText("Total Results: " + result.totalHits);
-                updatePageNumberLabel();
-            }
+    private void performPreviousPageSearch() {
+        searchExecutor.cancel(SEARCH);  // a next page still loading would land after this one
+        if (currentPage > 1 && pageHistory.size() > 1) {
+            pageHistory.pop();
+            DocumentsSearcher.SearchResult result = pageHistory.peek();  // the previous page, already fetched
+            updateResultArea(result);
+            currentPage = result.getPage();
+            showTotals(result);
+        } else if (currentPage > 1 && !pageHistory.isEmpty()) {
+            // jumped here: the pages before were never fetched
+            showPage(pageHistory.peek().getCursor(), currentPage - 1);
         }
     }
 
-    private void updateResultArea(DocumentsSearcher.SearchResult result) {
-        StringBuilder html = new StringBuilder("<html><body>");
-        for (Document doc : result.getDocuments()) {
-            String artist = doc.get("artist");
-            String song = doc.get("song");
-            String lyrics = doc.get("lyrics");
-            String lyricsPreview = lyrics.length() > 200 ? lyrics.substring(0, 200) + "..." : lyrics; // Truncate lyrics to 200 characters
-            for (String keyword : result.getKeywords()) {
-                lyricsPreview = lyricsPreview.replace(keyword, "<span style='background: yellow;'>" + keyword + "</span>");
+    private void performGoToPageSearch() {
+        String text = goToPageField.getText().strip();
+        goToPageField.clear();
+        if (pageHistory.isEmpty() || text.isEmpty()) {
+            return;
+        }
+        int page;
+        try {
+            page = Integer.parseInt(text);
+        } catch (NumberFormatException e) {
+            showAlert(Alert.AlertType.WARNING, "Invalid Page", "Enter a page number.");
+            return;
+        }
+        if (page < 1 || totalsExact && page > totalPages) {
+            showAlert(Alert.AlertType.WARNING, "Invalid Page", "Enter a page between 1 and " + totalPages + ".");
+            return;
+        }
+        searchExecutor.cancel(SEARCH);
+        showPage(pageHistory.peek().getCursor(), page);
+    }
+
+    // A page of the search on screen, which starts the pages Previous goes back through
+    private void showPage(String cursor, int page) {
+        runInBackground(SEARCH, () -> withSearcher(searcher -> searcher.goToPage(cursor, page)), result -> {
+            if (result == null) {
+                showAlert(Alert.AlertType.INFORMATION, "No Such Page", "There are fewer than " + page + " pages of results.");
+                return;
             }
-            html.append("<h1><a href='#' onClick=\"java.showFullLyrics('").append(song).append("')\">").append(artist).append(" - ").append(song).append("</a></h1>");
+            pageHistory.clear();
+            pageHistory.push(result);
+            updateResultArea(result);
+            currentPage = result.getPage();
+            showTotals(result);
+        });
+    }
+
+    // Searches stop counting past a threshold, the totals are then shown as lower bounds: "1000+"
+    private void showTotals(DocumentsSearcher.SearchResult result) {
+        totalPages = result.getTotalPages();
+        totalsExact = result.isTotalHitsExact();
+        totalResultsLabel.setText("Total Results: " + result.totalHits.value + (totalsExact ? "" : "+"));
+        updatePageNumberLabel();
+    }
+
+    private void updateResultArea(DocumentsSearcher.SearchResult result) {
+        long start = System.nanoTime();
+        StringBuilder html = new StringBuilder("<html><head><style>mark { background: yellow; }</style></head><body>");
+        if (artistFacets != null && groupedRequest != null) {
+            appendArtists(html, result.getRequest().getArtist());
+        }
+        List<SongHit> hits = result.getHits();
+        for (int i = 0; i < hits.size(); i++) {
+            SongHit hit = hits.get(i);
+            // Best matching passage of the lyrics, already escaped and highlighted by the searcher
+            String lyricsPreview = hit.getSnippetHtml();
+            // songs are opened by their position on the page, titles are not unique
+            html.append("<h1><a href='#' onClick=\"java.showFullLyrics(").append(i).append(")\">")
+                    .append(DocumentsSearcher.escapeHtml(hit.getArtist())).append(" - ").append(DocumentsSearcher.escapeHtml(hit.getSong())).append("</a></h1>");
             html.append("<p>").append(lyricsPreview).append("</p>");
         }
-        html.append("<script>function showFullLyrics(songTitle) { java.showFullLyrics(songTitle); }</script>");
+        html.append("<script>function showFullLyrics(index) { java.showFullLyrics(index); }</script>");
         html.append("</body></html>");
         WebEngine webEngine = resultArea.getEngine();
         webEngine.loadContent(html.toString());
+        SEARCH_RENDER.recordSince(start);
 
         webEngine.setJavaScriptEnabled(true); // Enable JavaScript
         webEngine.getLoadWorker().stateProperty().addListener((observable, oldValue, newValue) -> {
@@ -309,6 +494,28 @@ public class Presentation extends Application {
         });
     }
 
+    // Artists with the most matches as links that drill down into their songs, the one shown in bold
+    private void appendArtists(StringBuilder html, String shownArtist) {
+        html.append("<p>");
+        if (shownArtist == null) {
+            html.append("<b>All artists (").append(artistFacets.getArtistCount()).append(")</b>");
+        } else {
+            html.append("<a href='#' onClick=\"java.drillDown(-1)\">All artists (").append(artistFacets.getArtistCount()).append(")</a>");
+        }
+        List<ArtistFacets.Entry> artists = artistFacets.getTopArtists();
+        for (int i = 0; i < artists.size(); i++) {
+            ArtistFacets.Entry entry = artists.get(i);
+            String label = DocumentsSearcher.escapeHtml(entry.getArtist()) + " (" + entry.getCount() + ")";
+            html.append(" &middot; ");
+            if (entry.getArtist().equals(shownArtist)) {
+                html.append("<b>").append(label).append("</b>");
+            } else {
+                html.append("<a href='#' onClick=\"java.drillDown(").append(i).append(")\">").append(label).append("</a>");
+            }
+        }
+        html.append("</p><hr>");
+    }
+
     public class JavaBridge {
         DocumentsSearcher.SearchResult result;
 
@@ -316,50 +523,57 @@ public class Presentation extends Application {
             this.result = result;
         }
 
-        public void showFullLyrics(String songTitle) {
-            for (Document doc : result.getDocuments()) {
-                if (doc.get("song").equals(songTitle)) {
-                    String artist = doc.get("artist");
-                    String fullLyrics = doc.get("lyrics");
-                    Platform.runLater(() -> {
-                        Stage lyricsStage = new Stage();
-                        lyricsStage.setTitle(songTitle + " Full Lyrics");
-                        VBox lyricsLayout = new VBox(10);
-
-                        // Artist label
-                        Text artistLabel = new Text("Artist: ");
-                        artistLabel.setStyle("-fx-font-weight: bold;");
-                        Text artistText = new Text(artist);
-                        HBox artistBox = new HBox(artistLabel, artistText);
-                        lyricsLayout.getChildren().add(artistBox);
-
-                        // Song Title label
-                        Text songTitleLabel = new Text("Song Title: ");
-                        songTitleLabel.setStyle("-fx-font-weight: bold;");
-                        Text songTitleText = new Text(songTitle);
-                        HBox songTitleBox = new HBox(songTitleLabel, songTitleText);
-                        lyricsLayout.getChildren().add(songTitleBox);
-
-                        // Lyrics label
-                        Text lyricsLabel = new Text("Lyrics:");
-                        lyricsLabel.setStyle("-fx-font-weight: bold;");
-                        Text lyricsText = new Text(fullLyrics);
-                        lyricsText.setWrappingWidth(800);
-
-                        Button closeButton = new Button("Close");
-                        closeButton.setOnAction(event -> {
-                            lyricsStage.close();
-                            updateResultArea(this.result);
-                        });
-                        lyricsLayout.getChildren().addAll(lyricsLabel, lyricsText, closeButton);
-
-                        Scene lyricsScene = new Scene(lyricsLayout, 800, 600);
-                        lyricsStage.setScene(lyricsScene);
-                        lyricsStage.show();
-                    });
-                    break;
+        // Index into the listed artists, -1 for all of them
+        public void drillDown(int index) {
+            showArtist(index < 0 || artistFacets == null ? null : artistFacets.getTopArtists().get(index).getArtist());
+        }
+
+        // The lyrics are only loaded now, off the JavaFX thread
+        public void showFullLyrics(int index) {
+            SongHit hit = result.getHits().get(index);
+            runInBackground(SONG, () -> withSearcher(searcher -> searcher.getSong(hit)), doc -> {
+                if (doc == null) {
+                    showAlert(Alert.AlertType.INFORMATION, "Information", "This song is no longer in the index.");
+                    return;
                 }
-            }
+                String artist = doc.get("artist");
+                String songTitle = doc.get("song");
+                String fullLyrics = doc.get("lyrics");
+                Stage lyricsStage = new Stage();
+                lyricsStage.setTitle(songTitle + " Full Lyrics");
+                VBox lyricsLayout = new VBox(10);
+
+                // Artist label
+                Text artistLabel = new Text("Artist: ");
+                artistLabel.setStyle("-fx-font-weight: bold;");
+                Text artistText = new Text(artist);
+                HBox artistBox = new HBox(artistLabel, artistText);
+                lyricsLayout.getChildren().add(artistBox);
+
+                // Song Title label
+                Text songTitleLabel = new Text("Song Title: ");
+                songTitleLabel.setStyle("-fx-font-weight: bold;");
+                Text songTitleText = new Text(songTitle);
+                HBox songTitleBox = new HBox(songTitleLabel, songTitleText);
+                lyricsLayout.getChildren().add(songTitleBox);
+
+                // Lyrics label
+                Text lyricsLabel = new Text("Lyrics:");
+                lyricsLabel.setStyle("-fx-font-weight: bold;");
+                Text lyricsText = new Text(fullLyrics);
+                lyricsText.setWrappingWidth(800);
+
+                Button closeButton = new Button("Close");
+                closeButton.setOnAction(event -> {
+                    lyricsStage.close();
+                    updateResultArea(this.result);
+                });
+                lyricsLayout.getChildren().addAll(lyricsLabel, lyricsText, closeButton);
+
+                Scene lyricsScene = new Scene(lyricsLayout, 800, 600);
+                lyricsStage.setScene(lyricsScene);
+                lyricsStage.show();
+            });
         }
     }
 
@@ -373,6 +587,6 @@ public class Presentation extends Application {
 
     // Update this method to display total pages
     private void updatePageNumberLabel() {
-        pageNumberLabel.setText("Page " + currentPage + " of " + totalPages);
+        pageNumberLabel.setText("Page " + currentPage + " of " + totalPages + (totalsExact ? "" : "+"));
     }
 }
@@ -0,0 +1,156 @@
+package searchDocuments;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.apache.lucene.index.DocValues;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.OrdinalMap;
+import org.apache.lucene.index.SortedDocValues;
+import org.apache.lucene.search.CollectorManager;
+import org.apache.lucene.search.ScoreMode;
+import org.apache.lucene.search.SimpleCollector;
+import org.apache.lucene.util.LongValues;
+import org.apache.lucene.util.packed.PackedInts;
+
+import indexDocuments.FieldSchema;
+
+// Counts matches per artist by the ordinal of the artist doc value, mapped from the segment to the whole reader.
+// One int per artist and per slice of the index, nothing is allocated per hit.
+final class ArtistFacetCollector extends SimpleCollector {
+
+    private final Ordinals ordinals;
+    private final int[] counts;
+    private int hits;
+    private SortedDocValues values;
+    private LongValues toGlobal;
+
+    ArtistFacetCollector(Ordinals ordinals) {
+        this.ordinals = ordinals;
+        this.counts = new int[ordinals.valueCount];
+    }
+
+    // One collector per slice, their counts are added up
+    static CollectorManager<ArtistFacetCollector, ArtistFacetCollector> manager(Ordinals ordinals) {
+        return new CollectorManager<>() {
+            @Override
+            public ArtistFacetCollector newCollector() {
+                return new ArtistFacetCollector(ordinals);
+            }
+
+            @Override
+            public ArtistFacetCollector reduce(Collection<ArtistFacetCollector> collectors) {
+                ArtistFacetCollector total = new ArtistFacetCollector(ordinals);
+                for (ArtistFacetCollector collector : collectors) {
+                    total.hits += collector.hits;
+                    for (int ord = 0; ord < total.counts.length; ord++) {
+                        total.counts[ord] += collector.counts[ord];
+                    }
+                }
+                return total;
+            }
+        };
+    }
+
+    @Override
+    protected void doSetNextReader(LeafReaderContext context) throws IOException {
+        values = DocValues.getSorted(context.reader(), FieldSchema.ARTIST);
+        toGlobal = ordinals.toGlobal(context);
+    }
+
+    @Override
+    public void collect(int doc) throws IOException {
+        hits++;
+        if (values.advanceExact(doc)) {
+            counts[(int) toGlobal.get(values.ordValue())]++;
+        }
+    }
+
+    @Override
+    public ScoreMode scoreMode() {
+        return ScoreMode.COMPLETE_NO_SCORES;
+    }
+
+    // Every match, whether or not its song has an artist
+    int getHits() {
+        return hits;
+    }
+
+    // The k artists with the most matches. Global ordinals follow the names, so ties stay in alphabetical order.
+    ArtistFacets top(int k) throws IOException {
+        int[] top = new int[Math.min(k, counts.length)];
+        int size = 0;
+        int artists = 0;
+        for (int ord = 0; ord < counts.length; ord++) {
+            int count = counts[ord];
+            if (count == 0) {
+                continue;
+            }
+            artists++;
+            if (size < top.length || (size > 0 && count > counts[top[size - 1]])) {
+                int i = size < top.length ? size++ : size - 1;
+                while (i > 0 && counts[top[i - 1]] < count) {
+                    top[i] = top[i - 1];
+                    i--;
+                }
+                top[i] = ord;
+            }
+        }
+        List<ArtistFacets.Entry> entries = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            entries.add(new ArtistFacets.Entry(ordinals.lookup(top[i]), counts[top[i]]));
+        }
+        return new ArtistFacets(entries, artists);
+    }
+
+    // Ordinals of the artist doc values over all segments of one reader, in the order of the names.
+    // Built once per reader: the map only changes when a refresh brings in new segments.
+    static final class Ordinals {
+        private final long readerVersion;
+        private final List<LeafReaderContext> leaves;
+        private final OrdinalMap map;  // null with a single segment, whose ordinals are already global
+        private final int valueCount;
+
+        private Ordinals(long readerVersion, List<LeafReaderContext> leaves, OrdinalMap map, int valueCount) {
+            this.readerVersion = readerVersion;
+            this.leaves = leaves;
+            this.map = map;
+            this.valueCount = valueCount;
+        }
+
+        static Ordinals build(IndexReader reader, long readerVersion) throws IOException {
+            List<LeafReaderContext> leaves = reader.leaves();
+            SortedDocValues[] values = new SortedDocValues[leaves.size()];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = DocValues.getSorted(leaves.get(i).reader(), FieldSchema.ARTIST);
+            }
+            if (values.length == 0) {
+                return new Ordinals(readerVersion, leaves, null, 0);
+            }
+            if (values.length == 1) {
+                return new Ordinals(readerVersion, leaves, null, values[0].getValueCount());
+            }
+            IndexReader.CacheHelper cacheHelper = reader.getReaderCacheHelper();
+            OrdinalMap map = OrdinalMap.build(cacheHelper == null ? null : cacheHelper.getKey(), values, PackedInts.DEFAULT);
+            return new Ordinals(readerVersion, leaves, map, Math.toIntExact(map.getValueCount()));
+        }
+
+        long getReaderVersion() {
+            return readerVersion;
+        }
+
+        LongValues toGlobal(LeafReaderContext context) {
+            return map == null ? LongValues.IDENTITY : map.getGlobalOrds(context.ord);
+        }
+
+        // Artist name of a global ordinal, read from the first segment that has it
+        String lookup(int ord) throws IOException {
+            int segment = map == null ? 0 : map.getFirstSegmentNumber(ord);
+            long segmentOrd = map == null ? ord : map.getFirstSegmentOrd(ord);
+            return DocValues.getSorted(leaves.get(segment).reader(), FieldSchema.ARTIST).lookupOrd((int) segmentOrd).utf8ToString();
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package searchDocuments;
+
+import java.util.Collections;
+import java.util.List;
+
+// Number of matching songs per artist: the artists with the most of them, and how many artists matched at all.
+// Counted from the artist doc values in the same pass that collects the first page of hits.
+public final class ArtistFacets {
+
+    private final List<Entry> topArtists;
+    private final int artistCount;
+
+    ArtistFacets(List<Entry> topArtists, int artistCount) {
+        this.topArtists = Collections.unmodifiableList(topArtists);
+        this.artistCount = artistCount;
+    }
+
+    // Most matches first, artists with as many matches in alphabetical order
+    public List<Entry> getTopArtists() {
+        return topArtists;
+    }
+
+    // Artists with at least one matching song
+    public int getArtistCount() {
+        return artistCount;
+    }
+
+    public static final class Entry {
+        private final String artist;
+        private final int count;
+
+        Entry(String artist, int count) {
+            this.artist = artist;
+            this.count = count;
+        }
+
+        // Name as indexed, to pass to SearchRequest.withArtist
+        public String getArtist() {
+            return artist;
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        @Override
+        public String toString() {
+            return artist + " (" + count + ")";
+        }
+    }
+}
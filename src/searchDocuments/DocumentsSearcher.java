@@ -1,118 +1,691 @@
 package searchDocuments;
 
+import java.io.Closeable;
 import java.io.IOException;
+import java.text.BreakIterator;
 import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.TokenStream;
-import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.index.DirectoryReader;
-import org.apache.lucene.queryparser.classic.MultiFieldQueryParser;
+import org.apache.lucene.index.FilterLeafReader;
+import org.apache.lucene.index.IndexFileNames;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.SegmentInfos;
+import org.apache.lucene.index.SegmentReader;
+import org.apache.lucene.index.StoredFields;
+import org.apache.lucene.index.Term;
 import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.CollectorManager;
+import org.apache.lucene.search.FieldDoc;
 import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MultiCollectorManager;
 import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ReferenceManager;
 import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.SearcherFactory;
+import org.apache.lucene.search.SearcherManager;
 import org.apache.lucene.search.Sort;
 import org.apache.lucene.search.SortField;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopFieldCollector;
 import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.TopFieldDocs;
 import org.apache.lucene.search.TotalHits;
+import org.apache.lucene.search.uhighlight.DefaultPassageFormatter;
+import org.apache.lucene.search.uhighlight.LengthGoalBreakIterator;
+import org.apache.lucene.search.uhighlight.PassageScorer;
+import org.apache.lucene.search.uhighlight.UnifiedHighlighter;
+import org.apache.lucene.store.AlreadyClosedException;
 import org.apache.lucene.store.Directory;
-import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.MMapDirectory;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.IOUtils;
 
-public class DocumentsSearcher {
+import indexDocuments.FieldSchema;
+import indexDocuments.IndexLayout;
+import indexDocuments.NgramIndex;
+import metrics.LatencyHistogram;
+import metrics.Metrics;
+
+// Searches the song index through a SearcherManager: every search works on an acquired, reference-counted
+// IndexSearcher, and a background thread swaps in a reopened reader when the index changes, so a search is
+// never blocked by a refresh and no reader is closed while a search still uses it.
+// A sharded index is searched through a ShardedSearcherManager, over all of its shards at once.
+public class DocumentsSearcher implements Closeable {
 
     private static final int PAGE_SIZE = 10;
-    private final Directory directory;
+    private static final int MAX_COMPILED_QUERIES = 1024;
+    private static final int MAX_CHECKPOINTED_SEARCHES = 1024;
+    // Pages skipped by a single search when jumping, bounding the hits it keeps in memory
+    private static final int MAX_JUMP_PAGES = 100;
+    private static final Set<String> HIT_FIELDS = Set.of(FieldSchema.ID, FieldSchema.ARTIST, FieldSchema.SONG, FieldSchema.SNIPPET);
+    // Time spent in each stage of a search
+    private static final LatencyHistogram SEARCH_TOTAL = Metrics.histogram("search_total");
+    private static final LatencyHistogram SEARCH_PARSE = Metrics.histogram("search_parse");
+    private static final LatencyHistogram SEARCH_TYPOS = Metrics.histogram("search_typos");  // expanding terms into corrections
+    private static final LatencyHistogram SEARCH_COLLECT = Metrics.histogram("search_collect");
+    private static final LatencyHistogram SEARCH_STORED_FIELDS = Metrics.histogram("search_stored_fields");
+    private static final LatencyHistogram SEARCH_HIGHLIGHT = Metrics.histogram("search_highlight");
+    private static final LatencyHistogram SEARCH_GET_SONG = Metrics.histogram("search_get_song");
+    // Below this many documents a slice costs more to hand to another thread than it saves
+    private static final int MIN_DOCS_PER_SLICE = 20_000;
+    private static final int MAX_SEGMENTS_PER_SLICE = 5;
+    private final List<Directory> directories;  // empty when searching the live index of an IndexWriter
+    private final FieldSchema schema;
     private final Analyzer analyzer;
-    private final IndexSearcher iSearch;
-    private List<TopDocs> foundDocsHistory = new ArrayList<>();  // save docs from every page i turn
-    private List<SearchResult> resultHistory = new ArrayList<>();  // save results from every page I turn
+    private final QueryCompiler queryCompiler;
+    private final ReferenceManager<IndexSearcher> searcherManager;
+    private final ExecutorService sliceExecutor;  // null when every search runs on the caller's thread
+    private final ScheduledExecutorService refresher;
+    private final ReferenceManager<IndexSearcher> ngramManager;  // null without an n-gram index
+    private final TypoExpander typoExpander;  // null without an n-gram index
+    private final QueryResultCache resultCache;  // null when disabled
+    private final PageCheckpoints pageCheckpoints = new PageCheckpoints(MAX_CHECKPOINTED_SEARCHES);
+    private final AtomicLong jumpSearches = new AtomicLong();
+    private volatile boolean ready;  // warmed up
+    private volatile long warmUpMillis = -1;
+    // Latency of the first search of a user started while warming up, and of the first one started after
+    private final AtomicLong coldFirstSearchMicros = new AtomicLong(-1);
+    private final AtomicLong warmFirstSearchMicros = new AtomicLong(-1);
+    private final int totalHitsThreshold;
+    private volatile ArtistFacetCollector.Ordinals artistOrdinals;  // of the last reader artists were counted on
+    private final Metrics.MetricsSource metricsSource = this::collectMetrics;
+    private final AtomicInteger refCount = new AtomicInteger(1);  // the owner's, released by close
+    private final AtomicBoolean closed = new AtomicBoolean();
 
     public DocumentsSearcher(String filePath) throws IOException {
-        this.directory = FSDirectory.open(Paths.get(filePath));
-        DirectoryReader iReader = DirectoryReader.open(this.directory);
-        this.iSearch = new IndexSearcher(iReader);  // index searcher
-        this.analyzer = new StandardAnalyzer();
+        this(filePath, new DocumentsSearcherConfig());
+    }
+
+    public DocumentsSearcher(String filePath, DocumentsSearcherConfig settings) throws IOException {
+        Path indexPath = Paths.get(filePath);
+        this.sliceExecutor = newSliceExecutor(settings.getSearchThreads());
+        this.directories = new ArrayList<>();
+        ReferenceManager<IndexSearcher> openedNgrams = null;
+        try {
+            // indexes built before typo tolerance have no n-grams, typo-tolerant searches are then refused
+            Path ngramPath = NgramIndex.path(indexPath);
+            if (Files.isDirectory(ngramPath)) {
+                Directory ngramDirectory = openDirectory(ngramPath, settings.getPreloadExtensions());
+                directories.add(ngramDirectory);
+                if (DirectoryReader.indexExists(ngramDirectory)) {
+                    openedNgrams = new SearcherManager(ngramDirectory, null);
+                }
+            }
+            Directory directory = openDirectory(indexPath, settings.getPreloadExtensions());
+            directories.add(directory);
+            Map<String, String> userData = SegmentInfos.readLatestCommit(directory).getUserData();
+            int shards = IndexLayout.shardCount(userData);
+            if (shards == 1) {
+                this.searcherManager = new SearcherManager(directory, searcherFactory(sliceExecutor));
+            } else {
+                Directory[] shardDirectories = new Directory[shards];
+                for (int i = 0; i < shards; i++) {
+                    shardDirectories[i] = openDirectory(IndexLayout.shardPath(indexPath, i), settings.getPreloadExtensions());
+                    directories.add(shardDirectories[i]);
+                }
+                this.searcherManager = new ShardedSearcherManager(directory, shardDirectories, searcherFactory(sliceExecutor));
+            }
+            // Analyze queries the way the index was built, older indexes without a recorded schema used the default one
+            this.schema = recordedSchema(userData);
+        } catch (IOException | RuntimeException e) {
+            IOUtils.closeWhileHandlingException(openedNgrams);
+            IOUtils.closeWhileHandlingException(directories);
+            if (sliceExecutor != null) {
+                sliceExecutor.shutdown();
+            }
+            throw e;
+        }
+        this.ngramManager = openedNgrams;
+        this.typoExpander = openedNgrams == null ? null : new TypoExpander(openedNgrams);
+        this.analyzer = schema.buildAnalyzer();
+        this.queryCompiler = new QueryCompiler(analyzer, MAX_COMPILED_QUERIES);
+        this.resultCache = createResultCache(settings.getResultCacheMB());
+        this.totalHitsThreshold = settings.getTotalHitsThreshold();
+        this.refresher = startRefresher(settings.getRefreshIntervalMillis());
+        Metrics.register(metricsSource);
+    }
+
+    // Near-real-time search over a writer of this process: documents it adds or updates become
+    // visible at the next refresh, without waiting for them to be committed
+    public DocumentsSearcher(IndexWriter writer, DocumentsSearcherConfig settings) throws IOException {
+        this.directories = List.of();
+        this.sliceExecutor = newSliceExecutor(settings.getSearchThreads());
+        this.searcherManager = new SearcherManager(writer, true, false, searcherFactory(sliceExecutor));
+        this.ngramManager = null;  // built by IndexCreation for committed songs only
+        this.typoExpander = null;
+        Map<String, String> userData = new HashMap<>();
+        for (Map.Entry<String, String> entry : writer.getLiveCommitData()) {
+            userData.put(entry.getKey(), entry.getValue());
+        }
+        this.schema = recordedSchema(userData);
+        this.analyzer = schema.buildAnalyzer();
+        this.queryCompiler = new QueryCompiler(analyzer, MAX_COMPILED_QUERIES);
+        this.resultCache = createResultCache(settings.getResultCacheMB());
+        this.totalHitsThreshold = settings.getTotalHitsThreshold();
+        this.refresher = startRefresher(settings.getRefreshIntervalMillis());
+        Metrics.register(metricsSource);
+    }
+
+    // Memory-mapped: searches read the index straight from the page cache, and the files with one of
+    // the preload extensions are read into it when a reader opens them instead of at their first search
+    private static Directory openDirectory(Path path, Set<String> preloadExtensions) throws IOException {
+        MMapDirectory directory = new MMapDirectory(path);
+        if (!preloadExtensions.isEmpty()) {
+            directory.setPreload((name, context) -> {
+                String extension = IndexFileNames.getExtension(name);  // none for segments_N
+                return extension != null && preloadExtensions.contains(extension);
+            });
+        }
+        return directory;
+    }
+
+    private static FieldSchema recordedSchema(Map<String, String> userData) {
+        FieldSchema recorded = FieldSchema.fromCommitData(userData);
+        return recorded != null ? recorded : FieldSchema.defaultSchema();
+    }
+
+    private static ExecutorService newSliceExecutor(int threads) {
+        if (threads == 1) {
+            return null;
+        }
+        AtomicInteger count = new AtomicInteger();
+        return Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "searcher-slice-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    // Searchers that collect the slices of the index on the executor, or the default ones without it
+    private static SearcherFactory searcherFactory(ExecutorService executor) {
+        if (executor == null) {
+            return new SearcherFactory();
+        }
+        return new SearcherFactory() {
+            @Override
+            public IndexSearcher newSearcher(IndexReader reader, IndexReader previousReader) {
+                return new SlicedSearcher(reader, executor);
+            }
+        };
+    }
+
+    // Splits the index into about one slice per core, so every core collects an equal share of a large index.
+    // Lucene's default slices hold up to 250,000 documents, which leaves a catalog of that size on one thread.
+    private static final class SlicedSearcher extends IndexSearcher {
+        private static final int CORES = Runtime.getRuntime().availableProcessors();
+
+        SlicedSearcher(IndexReader reader, Executor executor) {
+            super(reader, executor);
+        }
+
+        @Override
+        protected LeafSlice[] slices(List<LeafReaderContext> leaves) {
+            long documents = 0;
+            for (LeafReaderContext leaf : leaves) {
+                documents += leaf.reader().maxDoc();
+            }
+            int docsPerSlice = (int) Math.max(MIN_DOCS_PER_SLICE, (documents + CORES - 1) / CORES);
+            return slices(leaves, docsPerSlice, MAX_SEGMENTS_PER_SLICE);
+        }
+    }
+
+    // Tells readers apart, so cached pages and doc ids of hits are only used with the reader they came from
+    private static long readerVersion(IndexReader reader) {
+        if (reader instanceof ShardedSearcherManager.ShardedReader) {
+            return ((ShardedSearcherManager.ShardedReader) reader).getVersion();
+        }
+        return ((DirectoryReader) reader).getVersion();
+    }
+
+    private QueryResultCache createResultCache(double megabytes) {
+        if (megabytes == 0) {
+            return null;
+        }
+        QueryResultCache cache = new QueryResultCache((long) (megabytes * 1024 * 1024));
+        // pages of the old reader are never served again once a new one is opened
+        searcherManager.addListener(new ReferenceManager.RefreshListener() {
+            @Override
+            public void beforeRefresh() {
+            }
+
+            @Override
+            public void afterRefresh(boolean didRefresh) {
+                if (didRefresh) {
+                    cache.clear();
+                }
+            }
+        });
+        return cache;
+    }
+
+    private ScheduledExecutorService startRefresher(long intervalMillis) {
+        if (intervalMillis == 0) {
+            return null;
+        }
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "searcher-refresh");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(() -> {
+            try {
+                // returns at once if another thread is already refreshing
+                searcherManager.maybeRefresh();
+                if (ngramManager != null) {
+                    ngramManager.maybeRefresh();
+                }
+            } catch (IOException | RuntimeException e) {
+                e.printStackTrace();  // keep serving the current reader and try again next time
+            }
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        return executor;
+    }
+
+    // Runs the queries on a background thread, by relevance and alphabetically, so that the first searches
+    // of users do not pay for reading the index from disk, loading its term dictionaries and compiling
+    // the search code. Their first pages are cached too. isReady tells when it is done.
+    public void warmUp(List<String> queries) {
+        Thread thread = new Thread(() -> {
+            long start = System.nanoTime();
+            for (String query : queries) {
+                for (boolean alphabetical : new boolean[] {false, true}) {
+                    try {
+                        performSearch(normalize(new SearchRequest(query, Set.of(), alphabetical)), null, 1, null, 0);
+                    } catch (ParseException | IllegalArgumentException e) {
+                        // a recorded query the current schema cannot parse, nobody will search it successfully either
+                    } catch (AlreadyClosedException e) {
+                        return;  // closed while warming up
+                    } catch (IOException | RuntimeException e) {
+                        e.printStackTrace();
+                        return;
+                    }
+                }
+            }
+            warmUpMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            ready = true;
+            System.out.println("Warmed up with " + queries.size() + " queries in " + warmUpMillis + " ms");
+        }, "searcher-warm-up");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // Whether warmUp has run all of its queries
+    public boolean isReady() {
+        return ready;
+    }
+
+    // Whether the index has the n-grams typo-tolerant searches need
+    public boolean canTolerateTypos() {
+        return typoExpander != null;
+    }
+
+    // Make every change committed so far (or added by the writer) visible to the next search,
+    // for callers that just updated the index and cannot wait for the background refresh
+    public void refresh() throws IOException {
+        searcherManager.maybeRefreshBlocking();
+        if (ngramManager != null) {
+            ngramManager.maybeRefreshBlocking();
+        }
+    }
+
+    // Keeps serving the readers it has: for an index about to be rebuilt with other settings, which a reader
+    // of the old ones must not pick up. Waits for a refresh already running.
+    public void stopRefreshing() {
+        if (refresher == null) {
+            return;
+        }
+        refresher.shutdownNow();
+        try {
+            refresher.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Callers that may race with close take a reference for the length of their calls and give it back
+    // with decRef. False once closed: the searcher they had is being replaced.
+    public boolean tryIncRef() {
+        int count;
+        while ((count = refCount.get()) > 0) {
+            if (refCount.compareAndSet(count, count + 1)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public void decRef() throws IOException {
+        if (refCount.decrementAndGet() == 0) {
+            doClose();
+        }
     }
 
     // Search method with an optional parameter to sort the results alphabetically
     public SearchResult search(String textToFind, Set<String> fields, boolean sortAlphabetically) throws ParseException, IOException {
-        Sort sort = null;
-        if (sortAlphabetically) {
-            sort = new Sort(new SortField("artist", SortField.Type.STRING), new SortField("song", SortField.Type.STRING));
-        }
+        return search(new SearchRequest(textToFind, fields, sortAlphabetically));
+    }
+
+    // First page of results for a request
+    public SearchResult search(SearchRequest request) throws ParseException, IOException {
+        return search(request, 0);
+    }
+
+    // First page of results together with the topArtists artists with the most matches, see getArtistFacets.
+    // Counting artists visits every match, so the total is then exact whatever the threshold.
+    public SearchResult search(SearchRequest request, int topArtists) throws ParseException, IOException {
+        AtomicLong firstSearchMicros = ready ? warmFirstSearchMicros : coldFirstSearchMicros;
+        long start = System.nanoTime();
+        SearchResult result = performSearch(normalize(request), null, 1, null, topArtists);
+        firstSearchMicros.compareAndSet(-1, TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
+        return result;
+    }
 
-        // Pass the sort order to the performSearch method
-        return performSearch(textToFind, fields, null, sort);
+    // Requests that only differ in spacing or in naming every field explicitly run the same query,
+    // so they share cached pages
+    private SearchRequest normalize(SearchRequest request) {
+        String text = request.getText().strip().replaceAll("\\s+", " ");
+        Set<String> fields = request.getFields();
+        if (fields.isEmpty()) {  // default search in all indexed fields
+            fields = new HashSet<>(schema.getSearchableFields());
+        }
+        return new SearchRequest(text, fields, request.isSortAlphabetically(), request.getArtist(), request.isTypoTolerant());
     }
 
-    // Method to retrieve the next page of search results
-    public SearchResult nextPage(String textToFind, Set<String> fields, Sort sort) throws ParseException, IOException {
-        SearchResult lastResult = resultHistory.get(resultHistory.size() - 1);
-        int totalResults = lastResult.getTotalPages() * PAGE_SIZE;
-        int currentPage = foundDocsHistory.size();
-        if (totalResults <= currentPage * PAGE_SIZE) {
+    // Method to retrieve the page after the one a cursor was taken from.
+    // Everything needed is in the cursor, so any thread can continue any user's paging.
+    public SearchResult nextPage(String cursor) throws ParseException, IOException {
+        SearchCursor position = SearchCursor.decode(cursor);
+        SearchResult result = hasNextPage(position)
+                ? performSearch(position.getRequest(), position.getAfter(), position.getPage() + 1, position.getTotalHits(), 0)
+                : null;
+        // with a lower bound on the total, a full last page is followed by an empty one
+        if (result == null || result.getHits().isEmpty()) {
             System.out.println("You are on the last page. There are no more results.");
             return null;
         }
+        return result;
+    }
 
-        ScoreDoc lastScoreDoc = null;
-        TopDocs lastFoundDocs = foundDocsHistory.get(foundDocsHistory.size() - 1);
-        if (lastFoundDocs.scoreDocs.length > 0) {
-            lastScoreDoc = lastFoundDocs.scoreDocs[lastFoundDocs.scoreDocs.length - 1];
+    // The page ending at a cursor is the last one when it was not full, or when an exact total says so.
+    // A total that is only a lower bound leaves the paging open-ended.
+    private static boolean hasNextPage(SearchCursor position) {
+        if (position.getAfter() == null) {
+            return false;
         }
-        return performSearch(textToFind, fields, lastScoreDoc, sort);
+        TotalHits totalHits = position.getTotalHits();
+        return totalHits.relation == TotalHits.Relation.GREATER_THAN_OR_EQUAL_TO || totalHits.value > (long) position.getPage() * PAGE_SIZE;
     }
 
-    // Method to retrieve the previous page of search results
-    public SearchResult prevPage(String textToFind, Set<String> fields) throws ParseException, IOException {
-        if (foundDocsHistory.size() < 1) {  // we cannot go back
-            System.out.println("You are on the first page. There are no previous results.");
+    // Method to retrieve any page of the search a cursor was taken from, without fetching the pages in between
+    // one by one: paging restarts from the nearest page end kept in the checkpoints, see jumpToPage.
+    // Null past the last page.
+    public SearchResult goToPage(String cursor, int page) throws ParseException, IOException {
+        if (page < 1) {
+            throw new IllegalArgumentException("page must be at least 1, got " + page);
+        }
+        SearchCursor position = SearchCursor.decode(cursor);
+        if (page == 1) {
+            return search(position.getRequest());
+        }
+        if (page == position.getPage() + 1) {
+            return nextPage(cursor);
+        }
+        TotalHits totalHits = position.getTotalHits();
+        SearchResult result = totalHits.relation == TotalHits.Relation.EQUAL_TO && totalHits.value <= (long) (page - 1) * PAGE_SIZE
+                ? null
+                : performSearch(position.getRequest(), null, page, totalHits, 0);
+        if (result == null || result.getHits().isEmpty()) {
+            System.out.println("There is no page " + page + ".");
             return null;
         }
-        foundDocsHistory.remove(foundDocsHistory.size() - 1);
-        resultHistory.remove(resultHistory.size() - 1);
-        
-        return resultHistory.get(resultHistory.size() - 1);  // return the previous page
+        return result;
     }
 
-    // Private method to perform the search operation
-    private SearchResult performSearch(String textToFind, Set<String> fields, ScoreDoc lastScoreDoc, Sort sort) throws ParseException, IOException {
-        if (fields.isEmpty()) {  // default search in all fields
-            fields = new HashSet<>(Arrays.asList("artist", "song", "lyrics"));
+    // Every entry point ends up here, cursors included: a cursor may come from another searcher or be made up
+    private void validate(SearchRequest request, FieldDoc after, int topArtists) {
+        for (String field : request.getFields()) {
+            if (!schema.getSearchableFields().contains(field)) {
+                throw new IllegalArgumentException("Cannot search the field " + field + ", searchable are " + schema.getSearchableFields());
+            }
+        }
+        if (topArtists < 0) {
+            throw new IllegalArgumentException("topArtists must not be negative, got " + topArtists);
+        }
+        if (topArtists > 0 && !schema.getField(FieldSchema.ARTIST).hasDocValues()) {
+            throw new IllegalArgumentException("Counting artists needs doc values on the " + FieldSchema.ARTIST + " field");
         }
-        if (sort == null) {
-            sort = Sort.RELEVANCE;
+        if (request.isTypoTolerant() && typoExpander == null) {
+            throw new IllegalArgumentException("Typo-tolerant search needs the n-gram index, built with the songs since this version");
         }
-        
-        // Search specified fields
-        MultiFieldQueryParser qp = new MultiFieldQueryParser(fields.toArray(new String[0]), this.analyzer);
-        Query query;
-        try (TokenStream tokenStream = analyzer.tokenStream(null, new StringReader(textToFind))) {
-            query = qp.parse(textToFind);
+        if (after != null) {
+            validateAfter(after, sort(request));
+        }
+    }
+
+    // The collector compares the values of a cursor with those of the hits without checking them
+    private static void validateAfter(FieldDoc after, Sort sort) {
+        SortField[] sortFields = sort.getSort();
+        if (after.fields == null || after.fields.length != sortFields.length) {
+            throw new IllegalArgumentException("Cursor with " + (after.fields == null ? 0 : after.fields.length) + " sort values for a sort on " + sortFields.length);
+        }
+        for (int i = 0; i < sortFields.length; i++) {
+            Object value = after.fields[i];
+            boolean fits;
+            switch (sortFields[i].getType()) {
+                case SCORE:
+                    fits = value instanceof Float;
+                    break;
+                case DOC:
+                case INT:
+                    fits = value instanceof Integer;
+                    break;
+                case LONG:
+                    fits = value instanceof Long;
+                    break;
+                case FLOAT:
+                    fits = value instanceof Float;
+                    break;
+                case DOUBLE:
+                    fits = value instanceof Double;
+                    break;
+                case STRING:
+                case STRING_VAL:
+                    fits = value == null || value instanceof BytesRef;  // songs without the field sort first
+                    break;
+                default:
+                    fits = true;
+            }
+            if (!fits) {
+                throw new IllegalArgumentException("Cursor sort value " + value + " does not fit the sort on " + sortFields[i]);
+            }
+        }
+    }
+
+    // The artist and song fields are tokenized, so Lucene cannot skip documents by their indexed terms the way it
+    // would for keyword fields: it fails or skips wrongly once they differ from the sorted values. The index sort
+    // still lets the collector stop early.
+    @SuppressWarnings("deprecation")
+    private static Sort sort(SearchRequest request) {
+        if (!request.isSortAlphabetically()) {
+            return Sort.RELEVANCE;
+        }
+        SortField[] sortFields = FieldSchema.alphabeticalSort().getSort();
+        for (SortField sortField : sortFields) {
+            sortField.setOptimizeSortWithIndexedData(false);
+        }
+        return new Sort(sortFields);
+    }
+
+    // Private method to perform the search operation.
+    // knownTotalHits is the total of the first page, or null when searching the first page.
+    // Without a lastScoreDoc, a page after the first one is jumped to.
+    private SearchResult performSearch(SearchRequest request, FieldDoc lastScoreDoc, int page, TotalHits knownTotalHits, int topArtists) throws ParseException, IOException {
+        validate(request, lastScoreDoc, topArtists);
+        long start = System.nanoTime();
+        IndexSearcher iSearch = searcherManager.acquire();
+        try {
+            if (resultCache == null) {
+                return performSearch(iSearch, request, lastScoreDoc, page, knownTotalHits, topArtists);
+            }
+            long version = readerVersion(iSearch.getIndexReader());
+            String position = lastScoreDoc == null ? "" : new SearchCursor(request, page - 1, lastScoreDoc, knownTotalHits).encode();
+            QueryResultCache.Key key = new QueryResultCache.Key(version, request, page, position, topArtists);
+            SearchResult result = resultCache.get(key);
+            if (result == null) {
+                result = performSearch(iSearch, request, lastScoreDoc, page, knownTotalHits, topArtists);
+                resultCache.put(key, result);
+            }
+            return result;
+        } finally {
+            searcherManager.release(iSearch);
+            SEARCH_TOTAL.recordSince(start);
+        }
+    }
+
+    private SearchResult performSearch(IndexSearcher iSearch, SearchRequest request, FieldDoc lastScoreDoc, int page, TotalHits knownTotalHits, int topArtists) throws ParseException, IOException {
+        String textToFind = request.getText();
+        Sort sort = sort(request);
+
+        // Search specified fields, the text is parsed and analyzed once for all the pages
+        long start = System.nanoTime();
+        QueryCompiler.CompiledQuery compiled = queryCompiler.compile(textToFind, request.getFields());
+        Query query = compiled.query;
+        if (request.getArtist() != null) {
+            // drilling down only filters: the exact artist term is not parsed, does not score
+            // and its postings are read directly, as cheap as a cached set of documents
+            query = new BooleanQuery.Builder()
+                    .add(query, BooleanClause.Occur.MUST)
+                    .add(new TermQuery(new Term(FieldSchema.ARTIST_EXACT, request.getArtist())), BooleanClause.Occur.FILTER)
+                    .build();
+        }
+        SEARCH_PARSE.recordSince(start);
+        List<String> keywords = compiled.keywords;
+        if (request.isTypoTolerant()) {
+            // corrections are highlighted like the terms typed
+            start = System.nanoTime();
+            query = typoExpander.expand(query);
+            keywords = QueryCompiler.keywords(query);
+            SEARCH_TYPOS.recordSince(start);
         }
 
         // Search the index with pagination and sorting options
-        TopDocs foundDocs = iSearch.searchAfter(lastScoreDoc, query, PAGE_SIZE, sort);
-        foundDocsHistory.add(foundDocs);
-        List<String> keywords = tokenizeString(this.analyzer, textToFind);
-
-        SearchResult result = new SearchResult(foundDocs.totalHits, getDocumentsList(foundDocs), keywords, foundDocs.scoreDocs);
-        resultHistory.add(result);  // save the results of searching
-        
-        // Total found documents
-        System.out.println("Total Results :: " + foundDocs.totalHits + " for <" + textToFind + ">");
+        start = System.nanoTime();
+        // The total is counted for the first page and carried over to the next ones. Once the collector has
+        // counted to its threshold and holds a full page, it skips what cannot compete: blocks of documents
+        // scoring too low, or the rest of a segment already sorted in the requested order.
+        // Every slice collects its own page, the pages are merged into one.
+        boolean exactCount = knownTotalHits == null && totalHitsThreshold == Integer.MAX_VALUE;
+        int threshold = knownTotalHits == null && !exactCount && topArtists == 0 ? totalHitsThreshold : PAGE_SIZE;
+        CollectorManager<TopFieldCollector, TopFieldDocs> topDocsManager = TopFieldCollector.createSharedManager(sort, PAGE_SIZE, lastScoreDoc, threshold);
+        TopDocs foundDocs;
+        TotalHits totalHits;
+        ArtistFacets artistFacets = null;
+        if (topArtists > 0) {
+            // artists are counted in the same pass over the matches as the page is collected
+            Object[] collected = iSearch.search(query, new MultiCollectorManager(topDocsManager, ArtistFacetCollector.manager(artistOrdinals(iSearch.getIndexReader()))));
+            foundDocs = (TopDocs) collected[0];
+            ArtistFacetCollector artists = (ArtistFacetCollector) collected[1];
+            artistFacets = artists.top(topArtists);
+            totalHits = new TotalHits(artists.getHits(), TotalHits.Relation.EQUAL_TO);  // only first pages count artists
+        } else {
+            foundDocs = lastScoreDoc == null && page > 1
+                    ? jumpToPage(iSearch, request, query, sort, page)
+                    : iSearch.search(query, topDocsManager);
+            if (knownTotalHits != null) {
+                totalHits = knownTotalHits;
+            } else if (exactCount) {
+                // cheaper than collecting every match: many queries are counted from the term statistics alone
+                totalHits = new TotalHits(iSearch.count(query), TotalHits.Relation.EQUAL_TO);
+            } else {
+                totalHits = foundDocs.totalHits;
+            }
+        }
+        SEARCH_COLLECT.recordSince(start);
+
+        // a page that is not full is the last one, its cursor leads nowhere. Relevance is a sort too, so
+        // every hit collected is a FieldDoc
+        FieldDoc last = foundDocs.scoreDocs.length == PAGE_SIZE ? (FieldDoc) foundDocs.scoreDocs[PAGE_SIZE - 1] : null;
+        pageCheckpoints.record(readerVersion(iSearch.getIndexReader()), request, page, last);
+        SearchCursor cursor = new SearchCursor(request, page, last, totalHits);
+        SearchResult result = new SearchResult(totalHits, getHits(iSearch, foundDocs, query, request.getFields()), keywords, foundDocs.scoreDocs, cursor, artistFacets);
         return result;
     }
 
+    // Hits of a page reached without the end of the page before it: searching after the nearest checkpoint,
+    // the pages in between are collected together by one search, at most MAX_JUMP_PAGES of them at a time.
+    // The end of every checkpointed page collected on the way is kept, so jumping further or back near
+    // that page later takes a single search of a few pages.
+    private TopDocs jumpToPage(IndexSearcher iSearch, SearchRequest request, Query query, Sort sort, int page) throws IOException {
+        long version = readerVersion(iSearch.getIndexReader());
+        Map.Entry<Integer, ScoreDoc> checkpoint = pageCheckpoints.floor(version, request, page - 1);
+        int from = checkpoint == null ? 0 : checkpoint.getKey();  // pages before the position collected after
+        ScoreDoc after = checkpoint == null ? null : checkpoint.getValue();
+        // counting is a lot cheaper than walking to the end of the matches, when the total was only a lower bound
+        if (page - from > MAX_JUMP_PAGES && iSearch.count(query) <= (long) (page - 1) * PAGE_SIZE) {
+            return new TopDocs(new TotalHits(0, TotalHits.Relation.EQUAL_TO), new ScoreDoc[0]);
+        }
+        while (true) {
+            int pages = Math.min(page - from, MAX_JUMP_PAGES);
+            int numHits = pages * PAGE_SIZE;
+            TopDocs collected = iSearch.search(query, TopFieldCollector.createSharedManager(sort, numHits, (FieldDoc) after, numHits));
+            jumpSearches.incrementAndGet();
+            ScoreDoc[] hits = collected.scoreDocs;
+            for (int end = from + PageCheckpoints.INTERVAL - from % PageCheckpoints.INTERVAL; end <= from + pages && (end - from) * PAGE_SIZE <= hits.length; end += PageCheckpoints.INTERVAL) {
+                pageCheckpoints.record(version, request, end, hits[(end - from) * PAGE_SIZE - 1]);
+            }
+            if (from + pages == page) {
+                int pageStart = (pages - 1) * PAGE_SIZE;
+                return new TopDocs(collected.totalHits, pageStart < hits.length ? Arrays.copyOfRange(hits, pageStart, hits.length) : new ScoreDoc[0]);
+            }
+            if (hits.length < numHits) {  // the matches end before the page
+                return new TopDocs(collected.totalHits, new ScoreDoc[0]);
+            }
+            from += pages;
+            after = hits[numHits - 1];
+        }
+    }
+
+    // Artist ordinals of the reader a search runs on, built by the first search that counts artists after a refresh
+    private ArtistFacetCollector.Ordinals artistOrdinals(IndexReader reader) throws IOException {
+        long version = readerVersion(reader);
+        ArtistFacetCollector.Ordinals ordinals = artistOrdinals;
+        if (ordinals == null || ordinals.getReaderVersion() != version) {
+            ordinals = ArtistFacetCollector.Ordinals.build(reader, version);
+            artistOrdinals = ordinals;
+        }
+        return ordinals;
+    }
+
     // Tokenize a given string using the specified analyzer
     public List<String> tokenizeString(Analyzer analyzer, String string) {
         List<String> result = new ArrayList<>();
@@ -128,57 +701,258 @@ public class DocumentsSearcher {
         return result;
     }
 
-    // Clear the search history
-    public void clearSearchHistory() {
-        resultHistory.clear();
-        foundDocsHistory.clear();
+    // Rows of the hits, without the full lyrics: only the fields a result list shows are loaded
+    private List<SongHit> getHits(IndexSearcher iSearch, TopDocs foundDocs, Query query, Set<String> fields) throws IOException {
+        long start = System.nanoTime();
+        String[] passages = highlightLyrics(iSearch, foundDocs, query, fields);
+        SEARCH_HIGHLIGHT.recordSince(start);
+        start = System.nanoTime();
+        List<SongHit> hits = new ArrayList<>();
+        StoredFields storedFields = iSearch.storedFields();
+        long version = readerVersion(iSearch.getIndexReader());
+        for (int i = 0; i < foundDocs.scoreDocs.length; i++) {
+            ScoreDoc sd = foundDocs.scoreDocs[i];
+            Document d = storedFields.document(sd.doc, HIT_FIELDS);
+            String snippet = d.get(FieldSchema.SNIPPET);
+            if (snippet == null) {  // index built before snippets were stored
+                String lyrics = storedFields.document(sd.doc, Set.of(FieldSchema.LYRICS)).get(FieldSchema.LYRICS);
+                snippet = lyrics == null ? "" : FieldSchema.snippet(lyrics);
+            }
+            // songs matched on artist or title only show the start of their lyrics
+            String snippetHtml = passages != null && passages[i] != null ? passages[i] : escapeHtml(snippet);
+            hits.add(new SongHit(sd.doc, version, d.get(FieldSchema.ID), d.get(FieldSchema.ARTIST), d.get(FieldSchema.SONG), snippet, snippetHtml));
+        }
+        SEARCH_STORED_FIELDS.recordSince(start);
+        return hits;
+    }
+
+    // Passage of the lyrics of each hit that best matches the query, escaped HTML with the matches in <mark>.
+    // Only for lyrics indexed with offsets: the matches are then read from the postings instead of
+    // analyzing the lyrics again. Null when there is nothing to highlight.
+    private String[] highlightLyrics(IndexSearcher iSearch, TopDocs foundDocs, Query query, Set<String> fields) throws IOException {
+        FieldSchema.FieldSpec lyrics = schema.getField(FieldSchema.LYRICS);
+        if (lyrics == null || !lyrics.hasOffsets() || !lyrics.isStored() || !fields.contains(FieldSchema.LYRICS) || foundDocs.scoreDocs.length == 0) {
+            return null;
+        }
+        UnifiedHighlighter highlighter = UnifiedHighlighter.builder(iSearch, analyzer)
+                .withFormatter(new DefaultPassageFormatter("<mark>", "</mark>", "... ", true))
+                // lyrics have no sentences: cut passages of about a snippet's length around the matches,
+                // and since they are all about as long, score them on their matches alone
+                .withBreakIterator(() -> LengthGoalBreakIterator.createClosestToLength(BreakIterator.getWordInstance(Locale.ROOT), FieldSchema.SNIPPET_LENGTH, 0.3f))
+                .withScorer(new PassageScorer(1.2f, 0f, FieldSchema.SNIPPET_LENGTH))
+                .withMaxNoHighlightPassages(0)
+                .build();
+        return highlighter.highlight(FieldSchema.LYRICS, query, foundDocs, 1);
+    }
+
+    // For callers putting the other fields of a hit next to its snippet in HTML
+    public static String escapeHtml(String text) {
+        StringBuilder html = new StringBuilder(text.length() + 16);
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '<': html.append("&lt;"); break;
+                case '>': html.append("&gt;"); break;
+                case '&': html.append("&amp;"); break;
+                case '"': html.append("&quot;"); break;
+                case '\'': html.append("&#x27;"); break;
+                default: html.append(c);
+            }
+        }
+        return html.toString();
+    }
+
+    // Every stored field of a song, loaded when a user opens it.
+    // The doc id of the hit is used while the reader it came from is current, after a refresh
+    // the song is looked up by its id. Null if the song was removed from the index since.
+    public Document getSong(SongHit hit) throws IOException {
+        long start = System.nanoTime();
+        IndexSearcher iSearch = searcherManager.acquire();
+        try {
+            if (readerVersion(iSearch.getIndexReader()) == hit.getReaderVersion()) {
+                return iSearch.storedFields().document(hit.getDocId());
+            }
+            return hit.getId() == null ? null : getSong(iSearch, hit.getId());
+        } finally {
+            searcherManager.release(iSearch);
+            SEARCH_GET_SONG.recordSince(start);
+        }
     }
 
-    // Retrieve the list of documents from TopDocs
-    private List<Document> getDocumentsList(TopDocs foundDocs) throws IOException {
-        List<Document> documentsLst = new ArrayList<>();
-        for (ScoreDoc sd : foundDocs.scoreDocs) {
-            Document d = this.iSearch.doc(sd.doc);
-            documentsLst.add(d);
+    // Every stored field of the song with this id, null if there is none
+    public Document getSong(String id) throws IOException {
+        long start = System.nanoTime();
+        IndexSearcher iSearch = searcherManager.acquire();
+        try {
+            return getSong(iSearch, id);
+        } finally {
+            searcherManager.release(iSearch);
+            SEARCH_GET_SONG.recordSince(start);
         }
-     
-        return documentsLst;
     }
 
-    public class SearchResult {
+    private static Document getSong(IndexSearcher iSearch, String id) throws IOException {
+        TopDocs found = iSearch.search(new TermQuery(new Term(FieldSchema.ID, id)), 1);
+        return found.scoreDocs.length == 0 ? null : iSearch.storedFields().document(found.scoreDocs[0].doc);
+    }
+
+    // One page of results. Immutable, the cursor leads to the next page.
+    public static class SearchResult {
         public final TotalHits totalHits;
-        private final List<Document> documents;
+        private final List<SongHit> hits;
         private final List<String> keywords;
         //private final TopDocs topDocs;  // add this field to store TopDocs
         private final ScoreDoc[] scoreDocs;
-        public SearchResult(TotalHits totalHits, List<Document> documents, List<String> keywords, ScoreDoc[] scoreDocs) {  // modify the constructor accordingly
+        private final SearchCursor cursor;
+        private final ArtistFacets artistFacets;
+        public SearchResult(TotalHits totalHits, List<SongHit> hits, List<String> keywords, ScoreDoc[] scoreDocs, SearchCursor cursor) {
+            this(totalHits, hits, keywords, scoreDocs, cursor, null);
+        }
+        public SearchResult(TotalHits totalHits, List<SongHit> hits, List<String> keywords, ScoreDoc[] scoreDocs, SearchCursor cursor, ArtistFacets artistFacets) {
             this.totalHits = totalHits;
-            this.documents = documents;
-            this.keywords = keywords;
+            this.hits = Collections.unmodifiableList(hits);
+            this.keywords = Collections.unmodifiableList(keywords);
             //this.topDocs = topDocs;
             this.scoreDocs = scoreDocs;
+            this.cursor = cursor;
+            this.artistFacets = artistFacets;
         }
         public ScoreDoc [] getScoreDocs() {
             return this.scoreDocs;
         }
-        // Get the total number of pages based on the page size
+        // Get the total number of pages based on the page size, a lower bound unless isTotalHitsExact
         public int getTotalPages() {
             return (int) Math.ceil((double) totalHits.value / PAGE_SIZE);
         }
 
+        // False when counting stopped at the threshold, totalHits is then a lower bound
+        public boolean isTotalHitsExact() {
+            return totalHits.relation == TotalHits.Relation.EQUAL_TO;
+        }
+
+        // Whether nextPage may return another page. Exact when the total is,
+        // otherwise only a page that is not full is known to be the last.
+        public boolean hasNextPage() {
+            return DocumentsSearcher.hasNextPage(cursor);
+        }
+
         public List<String> getKeywords() {
             return keywords;
         }
 
-        public List<Document> getDocuments() {
-            return documents;
+        public List<SongHit> getHits() {
+            return hits;
+        }
+
+        // Opaque cursor to pass to nextPage
+        public String getCursor() {
+            return cursor.encode();
+        }
+
+        // Number of this page, starting at 1
+        public int getPage() {
+            return cursor.getPage();
+        }
+
+        public SearchRequest getRequest() {
+            return cursor.getRequest();
+        }
+
+        // Matches per artist, on the first page of a search that asked for them and null otherwise
+        public ArtistFacets getArtistFacets() {
+            return artistFacets;
         }
 
        
     }
 
-    public IndexSearcher getIndexReader() {
-        return iSearch;
+    // Segment and result cache statistics of the current reader, read with the other metrics
+    private void collectMetrics(Map<String, Long> gauges) {
+        try {
+            IndexSearcher iSearch = searcherManager.acquire();
+            try {
+                IndexReader reader = iSearch.getIndexReader();
+                long bytes = 0;
+                for (LeafReaderContext context : reader.leaves()) {
+                    LeafReader leaf = FilterLeafReader.unwrap(context.reader());
+                    if (leaf instanceof SegmentReader) {
+                        bytes += ((SegmentReader) leaf).getSegmentInfo().sizeInBytes();
+                    }
+                }
+                gauges.put("searcher_segments", (long) reader.leaves().size());
+                gauges.put("searcher_documents", (long) reader.numDocs());
+                gauges.put("searcher_deleted_documents", (long) reader.numDeletedDocs());
+                gauges.put("searcher_index_bytes", bytes);
+                gauges.put("searcher_shards", (long) (reader instanceof ShardedSearcherManager.ShardedReader ? ((ShardedSearcherManager.ShardedReader) reader).getShards().size() : 1));
+                gauges.put("searcher_slices", (long) (iSearch.getSlices() == null ? 1 : iSearch.getSlices().length));
+            } finally {
+                searcherManager.release(iSearch);
+            }
+            if (ngramManager != null) {
+                IndexSearcher ngrams = ngramManager.acquire();
+                try {
+                    gauges.put("searcher_ngram_terms", (long) ngrams.getIndexReader().numDocs());
+                } finally {
+                    ngramManager.release(ngrams);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        gauges.put("searcher_ready", ready ? 1L : 0L);
+        if (warmUpMillis >= 0) {
+            gauges.put("searcher_warm_up_millis", warmUpMillis);
+        }
+        if (coldFirstSearchMicros.get() >= 0) {
+            gauges.put("searcher_first_search_cold_micros", coldFirstSearchMicros.get());
+        }
+        if (warmFirstSearchMicros.get() >= 0) {
+            gauges.put("searcher_first_search_warm_micros", warmFirstSearchMicros.get());
+        }
+        gauges.put("page_checkpoints", (long) pageCheckpoints.size());
+        gauges.put("page_jump_searches", jumpSearches.get());
+        if (resultCache != null) {
+            gauges.put("result_cache_hits", resultCache.getHitCount());
+            gauges.put("result_cache_misses", resultCache.getMissCount());
+            gauges.put("result_cache_evictions", resultCache.getEvictionCount());
+            gauges.put("result_cache_pages", (long) resultCache.size());
+            gauges.put("result_cache_bytes", resultCache.getBytes());
+        }
+    }
+
+    // Hit, miss and eviction counts of the result cache, null when it is disabled
+    public QueryResultCache getResultCache() {
+        return resultCache;
+    }
+
+    // Callers searching on their own must acquire a searcher and release it when done
+    public ReferenceManager<IndexSearcher> getSearcherManager() {
+        return searcherManager;
+    }
+
+    // Stops the background refresh at once and closes the reader once the searches still using it,
+    // and the callers holding a reference, are done
+    @Override
+    public void close() throws IOException {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        if (refresher != null) {
+            refresher.shutdownNow();
+        }
+        decRef();
+    }
+
+    private void doClose() throws IOException {
+        Metrics.unregister(metricsSource);
+        try {
+            IOUtils.close(searcherManager, ngramManager);
+        } finally {
+            if (sliceExecutor != null) {
+                sliceExecutor.shutdown();  // searches still running finish their slices
+            }
+            IOUtils.close(directories);
+        }
     }
 
 }
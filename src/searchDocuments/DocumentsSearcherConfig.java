@@ -0,0 +1,90 @@
+package searchDocuments;
+
+import java.util.Set;
+
+// Settings of a DocumentsSearcher, chained the same way as IndexCreationConfig
+public class DocumentsSearcherConfig {
+
+    // Files of the default codec every search reads from: term dictionaries, postings, doc values and norms.
+    // Small segments are kept in compound files, which also hold the stored lyrics, and are not preloaded.
+    public static final Set<String> SEARCH_FILE_EXTENSIONS = Set.of("tip", "tim", "tmd", "doc", "dvd", "dvm", "nvd", "nvm");
+
+    private long refreshIntervalMillis = 1000;
+    private double resultCacheMB = 16;
+    private int searchThreads = 1;
+    private int totalHitsThreshold = 1000;
+    private Set<String> preloadExtensions = Set.of();
+
+    // How often the background thread checks the index for changes, 0 disables it
+    public DocumentsSearcherConfig setRefreshIntervalMillis(long refreshIntervalMillis) {
+        if (refreshIntervalMillis < 0) {
+            throw new IllegalArgumentException("refreshIntervalMillis must not be negative, got " + refreshIntervalMillis);
+        }
+        this.refreshIntervalMillis = refreshIntervalMillis;
+        return this;
+    }
+
+    public long getRefreshIntervalMillis() {
+        return refreshIntervalMillis;
+    }
+
+    // Heap the result pages of recent searches may take, 0 disables the cache
+    public DocumentsSearcherConfig setResultCacheMB(double resultCacheMB) {
+        if (resultCacheMB < 0) {
+            throw new IllegalArgumentException("resultCacheMB must not be negative, got " + resultCacheMB);
+        }
+        this.resultCacheMB = resultCacheMB;
+        return this;
+    }
+
+    public double getResultCacheMB() {
+        return resultCacheMB;
+    }
+
+    // Threads one search may use to collect slices of the index concurrently, 1 searches on the caller's thread.
+    // Cuts the latency of a search over a large index, at the cost of throughput when many searches run at once.
+    public DocumentsSearcherConfig setSearchThreads(int searchThreads) {
+        if (searchThreads < 1) {
+            throw new IllegalArgumentException("searchThreads must be at least 1, got " + searchThreads);
+        }
+        this.searchThreads = searchThreads;
+        return this;
+    }
+
+    public int getSearchThreads() {
+        return searchThreads;
+    }
+
+    // Matches counted exactly before a search may stop counting and report the total as a lower bound,
+    // which lets it skip the blocks of frequent terms that cannot reach the first page.
+    // Integer.MAX_VALUE always counts every match.
+    public DocumentsSearcherConfig setTotalHitsThreshold(int totalHitsThreshold) {
+        if (totalHitsThreshold < 0) {
+            throw new IllegalArgumentException("totalHitsThreshold must not be negative, got " + totalHitsThreshold);
+        }
+        this.totalHitsThreshold = totalHitsThreshold;
+        return this;
+    }
+
+    public int getTotalHitsThreshold() {
+        return totalHitsThreshold;
+    }
+
+    // Extensions of the memory-mapped index files read into the page cache as soon as they are opened,
+    // like tim and tip for the term dictionaries or doc for the postings. Whole files are read,
+    // so only worth it for files every search touches. None by default.
+    public DocumentsSearcherConfig setPreloadExtensions(Set<String> preloadExtensions) {
+        for (String extension : preloadExtensions) {
+            if (extension.isEmpty() || extension.contains(".")) {
+                throw new IllegalArgumentException("Preload extensions are given without a dot, got \"" + extension + "\"");
+            }
+        }
+        this.preloadExtensions = Set.copyOf(preloadExtensions);
+        return this;
+    }
+
+    public Set<String> getPreloadExtensions() {
+        return preloadExtensions;
+    }
+
+}
@@ -0,0 +1,76 @@
+package searchDocuments;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+
+import org.apache.lucene.search.ScoreDoc;
+
+// Sort positions after every INTERVAL-th page of recent searches, shared by everyone paging through them:
+// a jump to page N starts from the nearest position before it instead of from the first page.
+// Positions are kept per reader version, doc ids and scores of another reader do not apply.
+final class PageCheckpoints {
+
+    static final int INTERVAL = 10;
+
+    private final int maxSearches;
+    private final LinkedHashMap<Key, TreeMap<Integer, ScoreDoc>> searches = new LinkedHashMap<>(16, 0.75f, true);  // access order
+    private int size;
+
+    PageCheckpoints(int maxSearches) {
+        this.maxSearches = maxSearches;
+    }
+
+    // Remember where a page ended, if it is one of the pages checkpoints are kept for
+    synchronized void record(long readerVersion, SearchRequest request, int page, ScoreDoc last) {
+        if (page % INTERVAL != 0 || last == null) {
+            return;
+        }
+        TreeMap<Integer, ScoreDoc> positions = searches.computeIfAbsent(new Key(readerVersion, request), key -> new TreeMap<>());
+        if (positions.put(page, last) == null) {
+            size++;
+        }
+        Iterator<TreeMap<Integer, ScoreDoc>> eldest = searches.values().iterator();
+        while (searches.size() > maxSearches && eldest.hasNext()) {
+            size -= eldest.next().size();
+            eldest.remove();
+        }
+    }
+
+    // The last checkpointed page at or before page with the position it ended at, null if there is none
+    synchronized Map.Entry<Integer, ScoreDoc> floor(long readerVersion, SearchRequest request, int page) {
+        TreeMap<Integer, ScoreDoc> positions = searches.get(new Key(readerVersion, request));
+        return positions == null ? null : positions.floorEntry(page);
+    }
+
+    // Positions kept over all searches
+    synchronized int size() {
+        return size;
+    }
+
+    private static final class Key {
+        private final long readerVersion;
+        private final SearchRequest request;
+
+        Key(long readerVersion, SearchRequest request) {
+            this.readerVersion = readerVersion;
+            this.request = request;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Key)) {
+                return false;
+            }
+            Key that = (Key) other;
+            return readerVersion == that.readerVersion && request.equals(that.request);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(readerVersion, request);
+        }
+    }
+}
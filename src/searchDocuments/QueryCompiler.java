@@ -0,0 +1,132 @@
+package searchDocuments;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.queryparser.classic.MultiFieldQueryParser;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.PrefixQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.QueryVisitor;
+import org.apache.lucene.util.automaton.ByteRunAutomaton;
+
+// Turns query text into a Lucene Query and the keywords to highlight, analyzing each distinct
+// (text, fields) once. Parsed queries are immutable and shared by all threads. The parsers are not
+// thread-safe: each parse takes one from a small pool per field set and puts it back, so they are reused
+// however many threads search, virtual threads that each run a single search included.
+class QueryCompiler {
+
+    private static final int POOLED_PARSERS = Math.max(4, Runtime.getRuntime().availableProcessors());  // per field set
+
+    private final Analyzer analyzer;
+    private final int maxEntries;
+    private final Map<Key, CompiledQuery> compiled = new ConcurrentHashMap<>();
+    private final Map<SortedSet<String>, BlockingQueue<MultiFieldQueryParser>> parsers = new ConcurrentHashMap<>();
+
+    QueryCompiler(Analyzer analyzer, int maxEntries) {
+        this.analyzer = analyzer;
+        this.maxEntries = maxEntries;
+    }
+
+    static final class CompiledQuery {
+        final Query query;
+        final List<String> keywords;
+
+        CompiledQuery(Query query, List<String> keywords) {
+            this.query = query;
+            this.keywords = keywords;
+        }
+    }
+
+    private static final class Key {
+        private final String text;
+        private final SortedSet<String> fields;
+
+        Key(String text, SortedSet<String> fields) {
+            this.text = text;
+            this.fields = fields;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Key && text.equals(((Key) other).text) && fields.equals(((Key) other).fields);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(text, fields);
+        }
+    }
+
+    CompiledQuery compile(String text, SortedSet<String> fields) throws ParseException {
+        Key key = new Key(text, fields);
+        CompiledQuery result = compiled.get(key);
+        if (result != null) {
+            return result;
+        }
+        // more parses at once than pooled parsers create the others, and drop them when the pool is full again
+        BlockingQueue<MultiFieldQueryParser> pool = parsers.computeIfAbsent(fields, f -> new ArrayBlockingQueue<>(POOLED_PARSERS));
+        MultiFieldQueryParser parser = pool.poll();
+        if (parser == null) {
+            parser = new MultiFieldQueryParser(fields.toArray(new String[0]), analyzer);
+        }
+        Query query;
+        try {
+            query = parser.parse(text);
+        } finally {
+            pool.offer(parser);
+        }
+        result = new CompiledQuery(query, keywords(query));
+        if (compiled.size() >= maxEntries) {
+            // drop any entry rather than track recency, a miss only costs one parse
+            Iterator<Key> keys = compiled.keySet().iterator();
+            if (keys.hasNext()) {
+                keys.next();
+                keys.remove();
+            }
+        }
+        compiled.put(key, result);
+        return result;
+    }
+
+    // Analyzed terms the query looks for, in query order and without the excluded ones
+    static List<String> keywords(Query query) {
+        Set<String> keywords = new LinkedHashSet<>();
+        query.visit(new QueryVisitor() {
+            @Override
+            public void consumeTerms(Query query, Term... terms) {
+                for (Term term : terms) {
+                    keywords.add(term.text());
+                }
+            }
+
+            // wildcard and fuzzy terms are only known once matched, a prefix can still be highlighted
+            @Override
+            public void consumeTermsMatching(Query query, String field, Supplier<ByteRunAutomaton> automaton) {
+                if (query instanceof PrefixQuery) {
+                    keywords.add(((PrefixQuery) query).getPrefix().text());
+                }
+            }
+
+            @Override
+            public QueryVisitor getSubVisitor(BooleanClause.Occur occur, Query parent) {
+                return occur == BooleanClause.Occur.MUST_NOT ? QueryVisitor.EMPTY_VISITOR : this;
+            }
+        });
+        return Collections.unmodifiableList(new ArrayList<>(keywords));
+    }
+}
@@ -1,103 +1,270 @@
 package searchDocuments;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.nio.file.Paths;
-import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
 
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.document.StringField;
 import org.apache.lucene.document.TextField;
 import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexableField;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.StoredFields;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.search.IndexSearcher;
-import org.apache.lucene.search.PrefixQuery;
-import org.apache.lucene.search.Query;
+import org.apache.lucene.search.MatchAllDocsQuery;
 import org.apache.lucene.search.ScoreDoc;
-import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.SearcherManager;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.IOUtils;
 
-public class QueryHistory {
-    private Directory directory;
+import metrics.LatencyHistogram;
+import metrics.Metrics;
+
+// Queries users searched for, kept in a small index.
+// One writer stays open for the lifetime of the history: recorded queries wait in a queue and a
+// background thread writes and commits them together, once per interval or as soon as a batch is full.
+// Suggestions come from an in-memory FST of the recorded queries, weighted by how often and how recently
+// each one was searched.
+public class QueryHistory implements Closeable {
+    private static final String QUERY = "query";
+    private static final String QUERY_KEY = "queryKey";  // the exact text, one document per query
+    private static final String COUNT = "count";         // times searched
+    private static final String LAST_USED = "lastUsed";  // epoch millis of the last search
+    private static final int SUGGESTIONS = 5;
+    private static final int SUGGESTER_DELTA_LIMIT = 256;  // queries recorded before the FST is rebuilt
+    private static final LatencyHistogram HISTORY_SUGGEST = Metrics.histogram("history_suggest");
+    private static final LatencyHistogram HISTORY_COMMIT = Metrics.histogram("history_commit");
+    private static final AtomicLong RECORDED_QUERIES = Metrics.counter("history_queries_total");
+
+    private final Directory directory;
+    private final IndexWriter writer;
+    private final SearcherManager searcherManager;
+    private final ScheduledExecutorService committer;
+    private final int commitBatchSize;
+    private final Queue<String> pending = new ConcurrentLinkedQueue<>();
+    private final Map<String, QuerySuggester.QueryStats> stats = new ConcurrentHashMap<>();
+    private final QuerySuggester suggester;
+    private final AtomicInteger pendingCount = new AtomicInteger();
+    private volatile boolean closed;
+    private final Metrics.MetricsSource metricsSource = gauges -> {
+        gauges.put("history_distinct_queries", (long) stats.size());
+        gauges.put("history_pending_queries", (long) pendingCount.get());
+    };
 
     public QueryHistory(String indexPath) throws IOException {
+        this(indexPath, new QueryHistoryConfig());
+    }
+
+    public QueryHistory(String indexPath, QueryHistoryConfig settings) throws IOException {
         // Initialize the directory for the query history index
         this.directory = FSDirectory.open(Paths.get(indexPath));
 
         // Create the query history index if it doesn't exist
-        createQueryHistoryIndex();
-    }
-
-    public void createQueryHistoryIndex() throws IOException {
-        // Configure the index writer for the query history index
         IndexWriterConfig indexWriterConfig = new IndexWriterConfig(new StandardAnalyzer());
         indexWriterConfig.setOpenMode(IndexWriterConfig.OpenMode.CREATE_OR_APPEND);
+        IndexWriter openedWriter = null;
+        SearcherManager openedManager = null;
+        try {
+            openedWriter = new IndexWriter(directory, indexWriterConfig);
+            addMissingKeys(openedWriter);
+            openedManager = new SearcherManager(openedWriter, null);
+        } catch (IOException | RuntimeException e) {
+            IOUtils.closeWhileHandlingException(openedManager, openedWriter, directory);
+            throw e;
+        }
+        this.writer = openedWriter;
+        this.searcherManager = openedManager;
 
-        try (IndexWriter writer = new IndexWriter(directory, indexWriterConfig)) {
-            // Empty body, we just want to initialize the index if it doesn't exist
+        this.suggester = new QuerySuggester(settings.getRecencyHalfLifeDays() * TimeUnit.DAYS.toMillis(1), SUGGESTER_DELTA_LIMIT);
+        try {
+            loadStats();
+            suggester.rebuild(stats.values());
+        } catch (IOException | RuntimeException e) {
+            IOUtils.closeWhileHandlingException(searcherManager, writer, directory);
+            throw e;
         }
+
+        this.commitBatchSize = settings.getCommitBatchSize();
+        this.committer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "query-history-commit");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = settings.getCommitIntervalMillis();
+        committer.scheduleWithFixedDelay(this::flushQuietly, interval, interval, TimeUnit.MILLISECONDS);
+        Metrics.register(metricsSource);
     }
 
-    public void addQueryToHistory(String query) throws IOException {
-        if (isQueryInHistory(query)) {
-            // If the query is already in history, do not add it
-            return;
+    // Histories written before queries had a key held one document per add, keep one per query
+    private static void addMissingKeys(IndexWriter writer) throws IOException {
+        Set<String> queries = new LinkedHashSet<>();
+        try (DirectoryReader reader = DirectoryReader.open(writer)) {
+            if (reader.getDocCount(QUERY_KEY) == reader.numDocs()) {
+                return;
+            }
+            IndexSearcher searcher = new IndexSearcher(reader);
+            for (ScoreDoc scoreDoc : searcher.search(new MatchAllDocsQuery(), Math.max(1, reader.numDocs())).scoreDocs) {
+                String query = searcher.storedFields().document(scoreDoc.doc).get(QUERY);
+                if (query != null) {
+                    queries.add(query);
+                }
+            }
+        }
+        writer.deleteAll();
+        for (String query : queries) {
+            writer.addDocument(toDocument(query));
         }
+        writer.commit();
+    }
 
-        // Configure the index writer for the query history index
-        IndexWriterConfig indexWriterConfig = new IndexWriterConfig(new StandardAnalyzer());
-        indexWriterConfig.setOpenMode(IndexWriterConfig.OpenMode.CREATE_OR_APPEND);
+    private static Document toDocument(String query) {
+        return toDocument(new QuerySuggester.QueryStats(query, 1, 0));
+    }
 
-        try (IndexWriter writer = new IndexWriter(directory, indexWriterConfig)) {
-            // Create a document to store the query
-            Document doc = new Document();
-            doc.add(new TextField("query", query, Field.Store.YES));
+    private static Document toDocument(QuerySuggester.QueryStats queryStats) {
+        Document doc = new Document();
+        doc.add(new TextField(QUERY, queryStats.query, Field.Store.YES));
+        doc.add(new StringField(QUERY_KEY, queryStats.query, Field.Store.NO));
+        doc.add(new StoredField(COUNT, queryStats.count));
+        doc.add(new StoredField(LAST_USED, queryStats.lastUsed));
+        return doc;
+    }
 
-            // Add the document to the index
-            writer.addDocument(doc);
-            writer.commit();
+    // Usage of every recorded query, queries recorded before it was kept count once and are not recent
+    private void loadStats() throws IOException {
+        IndexSearcher searcher = searcherManager.acquire();
+        try {
+            IndexReader reader = searcher.getIndexReader();
+            StoredFields storedFields = searcher.storedFields();
+            for (LeafReaderContext context : reader.leaves()) {
+                Bits liveDocs = context.reader().getLiveDocs();
+                for (int doc = 0; doc < context.reader().maxDoc(); doc++) {
+                    if (liveDocs != null && !liveDocs.get(doc)) {
+                        continue;
+                    }
+                    Document document = storedFields.document(context.docBase + doc);
+                    String query = document.get(QUERY);
+                    if (query == null) {
+                        continue;
+                    }
+                    IndexableField count = document.getField(COUNT);
+                    IndexableField lastUsed = document.getField(LAST_USED);
+                    stats.put(query, new QuerySuggester.QueryStats(query,
+                            count != null ? count.numericValue().longValue() : 1,
+                            lastUsed != null ? lastUsed.numericValue().longValue() : 0));
+                }
+            }
+        } finally {
+            searcherManager.release(searcher);
         }
     }
 
-    private boolean isQueryInHistory(String query) throws IOException {
-        try (IndexReader reader = DirectoryReader.open(directory)) {
-            IndexSearcher searcher = new IndexSearcher(reader);
-
-            // Create a prefix query to match queries with the given prefix
-            Query q = new PrefixQuery(new Term("query", query));
+    // Records a query without waiting for the index: it is written and committed in the background
+    public void addQueryToHistory(String query) {
+        if (closed) {
+            throw new IllegalStateException("Query history is closed");
+        }
+        if (query.isBlank()) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        QuerySuggester.QueryStats used = stats.compute(query,
+                (q, previous) -> new QuerySuggester.QueryStats(q, previous != null ? previous.count + 1 : 1, now));
+        suggester.record(used);  // suggested right away, before it is written
+        pending.add(query);
+        RECORDED_QUERIES.incrementAndGet();
+        if (pendingCount.incrementAndGet() == commitBatchSize) {
+            committer.execute(this::flushQuietly);  // a full batch does not wait for the interval
+        }
+    }
 
-            // Perform the search and retrieve the top matching documents
-            TopDocs topDocs = searcher.search(q, 1);
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (IOException | RuntimeException e) {
+            e.printStackTrace();  // written queries are committed by the next run
+        }
+    }
 
-            // Check if any matching documents are found
-            return topDocs.totalHits.value > 0;
+    // Writes the waiting queries and commits them with a single fsync
+    public synchronized void flush() throws IOException {
+        String query;
+        while ((query = pending.poll()) != null) {
+            pendingCount.decrementAndGet();
+            // a query searched again replaces its document instead of adding one
+            writer.updateDocument(new Term(QUERY_KEY, query), toDocument(stats.get(query)));
+        }
+        if (writer.hasUncommittedChanges()) {
+            long start = System.nanoTime();
+            writer.commit();
+            HISTORY_COMMIT.recordSince(start);
+            searcherManager.maybeRefresh();
+        }
+        if (suggester.needsRebuild()) {
+            suggester.rebuild(stats.values());
         }
     }
 
+    // Most searched recent queries starting with the text, answered from memory
     public List<String> getQueriesSuggestions(String textToFind) throws IOException {
-        List<String> suggestions = new ArrayList<>();
-
-        try (IndexReader reader = DirectoryReader.open(directory)) {
-            IndexSearcher searcher = new IndexSearcher(reader);
-
-            // Create a prefix query to match queries with the given prefix
-            Query query = new PrefixQuery(new Term("query", textToFind));
+        long start = System.nanoTime();
+        try {
+            return suggester.lookup(textToFind, SUGGESTIONS);
+        } finally {
+            HISTORY_SUGGEST.recordSince(start);
+        }
+    }
 
-            // Perform the search and retrieve the top matching documents
-            TopDocs topDocs = searcher.search(query, 5);
+    // The n queries searched most often, the most recent first among equally frequent ones
+    public List<String> getTopQueries(int n) {
+        return stats.values().stream()
+                .sorted(Comparator.comparingLong((QuerySuggester.QueryStats queryStats) -> queryStats.count)
+                        .thenComparingLong(queryStats -> queryStats.lastUsed)
+                        .reversed())
+                .limit(n)
+                .map(queryStats -> queryStats.query)
+                .collect(Collectors.toList());
+    }
 
-            // Extract the suggestions from the matching documents
-            for (ScoreDoc scoreDoc : topDocs.scoreDocs) {
-                Document doc = searcher.doc(scoreDoc.doc);
-                suggestions.add(doc.get("query"));
-            }
+    // Commits what is still queued and releases the index
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        Metrics.unregister(metricsSource);
+        committer.shutdown();
+        try {
+            committer.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            flush();
+        } finally {
+            IOUtils.close(searcherManager, writer, directory);
         }
-
-        return suggestions;
     }
 }
@@ -0,0 +1,49 @@
+package searchDocuments;
+
+// Settings of a QueryHistory, chained the same way as IndexCreationConfig
+public class QueryHistoryConfig {
+
+    private long commitIntervalMillis = 1000;
+    private int commitBatchSize = 64;
+    private double recencyHalfLifeDays = 30;
+
+    // Longest time a recorded query waits before it is committed
+    public QueryHistoryConfig setCommitIntervalMillis(long commitIntervalMillis) {
+        if (commitIntervalMillis < 1) {
+            throw new IllegalArgumentException("commitIntervalMillis must be at least 1, got " + commitIntervalMillis);
+        }
+        this.commitIntervalMillis = commitIntervalMillis;
+        return this;
+    }
+
+    public long getCommitIntervalMillis() {
+        return commitIntervalMillis;
+    }
+
+    // Number of waiting queries that triggers a commit before the interval is over
+    public QueryHistoryConfig setCommitBatchSize(int commitBatchSize) {
+        if (commitBatchSize < 1) {
+            throw new IllegalArgumentException("commitBatchSize must be at least 1, got " + commitBatchSize);
+        }
+        this.commitBatchSize = commitBatchSize;
+        return this;
+    }
+
+    public int getCommitBatchSize() {
+        return commitBatchSize;
+    }
+
+    // A query searched this long ago weighs half as much in the suggestions as one searched now
+    public QueryHistoryConfig setRecencyHalfLifeDays(double recencyHalfLifeDays) {
+        if (recencyHalfLifeDays <= 0) {
+            throw new IllegalArgumentException("recencyHalfLifeDays must be positive, got " + recencyHalfLifeDays);
+        }
+        this.recencyHalfLifeDays = recencyHalfLifeDays;
+        return this;
+    }
+
+    public double getRecencyHalfLifeDays() {
+        return recencyHalfLifeDays;
+    }
+
+}
@@ -0,0 +1,167 @@
+package searchDocuments;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.util.RamUsageEstimator;
+
+// Result pages of recent searches, least recently used first out once the cached pages exceed a byte budget.
+// Entries are keyed by the reader version they were computed on: DocumentsSearcher clears the cache when
+// a refresh opens a new reader, and a page computed by a search still running on the old reader can
+// never be served for the new one.
+public class QueryResultCache {
+
+    private static final long ENTRY_OVERHEAD = 128;  // map entry, key and result objects
+
+    private final long maxBytes;
+    private final LinkedHashMap<Key, Entry> pages = new LinkedHashMap<>(16, 0.75f, true);  // access order
+    private long bytes;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public QueryResultCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    // Page of a request on one reader version, position is empty for the first page
+    // and the cursor of the previous page otherwise. First pages may come with artist counts.
+    static final class Key {
+        private final long readerVersion;
+        private final SearchRequest request;
+        private final int page;
+        private final String position;
+        private final int topArtists;
+
+        Key(long readerVersion, SearchRequest request, int page, String position, int topArtists) {
+            this.readerVersion = readerVersion;
+            this.request = request;
+            this.page = page;
+            this.position = position;
+            this.topArtists = topArtists;
+        }
+
+        long ramBytesUsed() {
+            long size = RamUsageEstimator.sizeOf(request.getText()) + RamUsageEstimator.sizeOf(position) + RamUsageEstimator.sizeOf(request.getArtist());
+            for (String field : request.getFields()) {
+                size += RamUsageEstimator.sizeOf(field);
+            }
+            return size;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Key)) {
+                return false;
+            }
+            Key that = (Key) other;
+            return readerVersion == that.readerVersion && page == that.page && request.equals(that.request) && position.equals(that.position)
+                    && topArtists == that.topArtists;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(readerVersion, request, page, position, topArtists);
+        }
+    }
+
+    private static final class Entry {
+        final DocumentsSearcher.SearchResult result;
+        final long bytes;
+
+        Entry(DocumentsSearcher.SearchResult result, long bytes) {
+            this.result = result;
+            this.bytes = bytes;
+        }
+    }
+
+    DocumentsSearcher.SearchResult get(Key key) {
+        Entry entry;
+        synchronized (this) {
+            entry = pages.get(key);
+        }
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return entry.result;
+    }
+
+    void put(Key key, DocumentsSearcher.SearchResult result) {
+        long size = ENTRY_OVERHEAD + key.ramBytesUsed() + ramBytesUsed(result);
+        if (size > maxBytes) {
+            return;  // would evict everything else
+        }
+        synchronized (this) {
+            Entry previous = pages.put(key, new Entry(result, size));
+            bytes += size - (previous != null ? previous.bytes : 0);
+            Iterator<Entry> eldest = pages.values().iterator();
+            while (bytes > maxBytes && eldest.hasNext()) {
+                bytes -= eldest.next().bytes;
+                eldest.remove();
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    // Estimated heap held by a page: mostly the strings of its rows
+    private static long ramBytesUsed(DocumentsSearcher.SearchResult result) {
+        long size = 0;
+        for (SongHit hit : result.getHits()) {
+            size += RamUsageEstimator.shallowSizeOf(hit) + RamUsageEstimator.sizeOf(hit.getId()) + RamUsageEstimator.sizeOf(hit.getArtist())
+                    + RamUsageEstimator.sizeOf(hit.getSong()) + RamUsageEstimator.sizeOf(hit.getSnippet()) + RamUsageEstimator.sizeOf(hit.getSnippetHtml());
+        }
+        for (String keyword : result.getKeywords()) {
+            size += RamUsageEstimator.sizeOf(keyword);
+        }
+        for (ScoreDoc scoreDoc : result.getScoreDocs()) {
+            size += RamUsageEstimator.shallowSizeOf(scoreDoc);
+        }
+        if (result.getArtistFacets() != null) {
+            for (ArtistFacets.Entry entry : result.getArtistFacets().getTopArtists()) {
+                size += RamUsageEstimator.shallowSizeOf(entry) + RamUsageEstimator.sizeOf(entry.getArtist());
+            }
+        }
+        return size;
+    }
+
+    public synchronized void clear() {
+        pages.clear();
+        bytes = 0;
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    public synchronized int size() {
+        return pages.size();
+    }
+
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d pages, %d/%d bytes, %d hits, %d misses, %d evictions",
+                size(), getBytes(), maxBytes, getHitCount(), getMissCount(), getEvictionCount());
+    }
+}
@@ -0,0 +1,182 @@
+package searchDocuments;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.lucene.search.suggest.InputIterator;
+import org.apache.lucene.search.suggest.Lookup;
+import org.apache.lucene.search.suggest.fst.WFSTCompletionLookup;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.util.BytesRef;
+
+// Completes whole query prefixes from the query history, most popular first.
+// The queries are compiled into a weighted FST, which is immutable: queries recorded after it was built
+// are kept in a small delta map that lookups scan and merge, until enough of them justify a rebuild.
+// A query weighs its number of searches, halved for every half-life since it was last searched.
+class QuerySuggester {
+
+    private static final long MAX_DELTA_AGE_MILLIS = 10 * 60 * 1000;  // also rebuild to re-age the weights
+
+    static final class QueryStats {
+        final String query;
+        final long count;
+        final long lastUsed;  // epoch millis, 0 when unknown
+
+        QueryStats(String query, long count, long lastUsed) {
+            this.query = query;
+            this.count = count;
+            this.lastUsed = lastUsed;
+        }
+    }
+
+    // The FST and what it was built from, swapped as a whole
+    private static final class Snapshot {
+        final Lookup lookup;
+        final Map<String, String> display;  // suggestion key to the query as users typed it
+        final long builtAt;                 // the time every weight is relative to
+
+        Snapshot(Lookup lookup, Map<String, String> display, long builtAt) {
+            this.lookup = lookup;
+            this.display = display;
+            this.builtAt = builtAt;
+        }
+    }
+
+    private final double halfLifeMillis;
+    private final int deltaLimit;
+    private final Map<String, QueryStats> delta = new ConcurrentHashMap<>();
+    private volatile Snapshot current;
+
+    QuerySuggester(double halfLifeMillis, int deltaLimit) {
+        this.halfLifeMillis = halfLifeMillis;
+        this.deltaLimit = deltaLimit;
+    }
+
+    // Case-insensitive, so "Love" and "love" complete each other
+    private static String key(String query) {
+        return query.toLowerCase(Locale.ROOT);
+    }
+
+    private long weight(QueryStats stats, long builtAt) {
+        double decay = stats.lastUsed == 0 ? 0 : Math.pow(2, (stats.lastUsed - builtAt) / halfLifeMillis);
+        double weight = stats.count * decay * 1000;
+        return Math.max(1, Math.min(Integer.MAX_VALUE, Math.round(weight)));  // WFST weights are ints
+    }
+
+    // Compiles all the queries into a new FST, queries recorded meanwhile stay in the delta
+    void rebuild(Collection<QueryStats> queries) throws IOException {
+        long now = System.currentTimeMillis();
+        Map<String, QueryStats> included = new HashMap<>(delta);
+        Map<String, Long> weights = new HashMap<>();
+        Map<String, String> display = new HashMap<>();
+        Map<String, Long> displayWeight = new HashMap<>();
+        for (QueryStats stats : queries) {
+            String key = key(stats.query);
+            long weight = weight(stats, now);
+            weights.merge(key, weight, (a, b) -> Math.min(Integer.MAX_VALUE, a + b));
+            if (weight > displayWeight.getOrDefault(key, 0L)) {
+                displayWeight.put(key, weight);
+                display.put(key, stats.query);
+            }
+        }
+
+        WFSTCompletionLookup lookup = new WFSTCompletionLookup(new ByteBuffersDirectory(), "suggest", true);
+        lookup.build(new WeightsIterator(weights.entrySet().iterator()));
+        current = new Snapshot(lookup, display, now);
+        for (Map.Entry<String, QueryStats> entry : included.entrySet()) {
+            delta.remove(entry.getKey(), entry.getValue());
+        }
+    }
+
+    void record(QueryStats stats) {
+        delta.put(key(stats.query), stats);
+    }
+
+    boolean needsRebuild() {
+        Snapshot snapshot = current;
+        return snapshot == null || delta.size() >= deltaLimit
+                || (!delta.isEmpty() && System.currentTimeMillis() - snapshot.builtAt > MAX_DELTA_AGE_MILLIS);
+    }
+
+    List<String> lookup(String prefix, int num) throws IOException {
+        Snapshot snapshot = current;
+        String keyPrefix = key(prefix);
+        Map<String, QueryStats> recent = new HashMap<>();
+        for (Map.Entry<String, QueryStats> entry : delta.entrySet()) {
+            if (entry.getKey().startsWith(keyPrefix)) {
+                recent.put(entry.getKey(), entry.getValue());
+            }
+        }
+
+        Map<String, Long> candidates = new LinkedHashMap<>();
+        // ask for more in case recent queries take the place of compiled ones
+        for (Lookup.LookupResult result : snapshot.lookup.lookup(keyPrefix, false, num + recent.size())) {
+            candidates.put(result.key.toString(), result.value);
+        }
+        for (Map.Entry<String, QueryStats> entry : recent.entrySet()) {
+            candidates.merge(entry.getKey(), weight(entry.getValue(), snapshot.builtAt), Math::max);
+        }
+
+        List<Map.Entry<String, Long>> ranked = new ArrayList<>(candidates.entrySet());
+        ranked.sort(Map.Entry.<String, Long>comparingByValue().reversed());
+        List<String> suggestions = new ArrayList<>();
+        for (Map.Entry<String, Long> entry : ranked.subList(0, Math.min(num, ranked.size()))) {
+            QueryStats stats = recent.get(entry.getKey());
+            suggestions.add(stats != null ? stats.query : snapshot.display.get(entry.getKey()));
+        }
+        return suggestions;
+    }
+
+    private static final class WeightsIterator implements InputIterator {
+        private final Iterator<Map.Entry<String, Long>> entries;
+        private long weight;
+
+        WeightsIterator(Iterator<Map.Entry<String, Long>> entries) {
+            this.entries = entries;
+        }
+
+        @Override
+        public BytesRef next() {
+            if (!entries.hasNext()) {
+                return null;
+            }
+            Map.Entry<String, Long> entry = entries.next();
+            weight = entry.getValue();
+            return new BytesRef(entry.getKey());
+        }
+
+        @Override
+        public long weight() {
+            return weight;
+        }
+
+        @Override
+        public BytesRef payload() {
+            return null;
+        }
+
+        @Override
+        public boolean hasPayloads() {
+            return false;
+        }
+
+        @Override
+        public Set<BytesRef> contexts() {
+            return null;
+        }
+
+        @Override
+        public boolean hasContexts() {
+            return false;
+        }
+    }
+}
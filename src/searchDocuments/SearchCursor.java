@@ -0,0 +1,229 @@
+package searchDocuments;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.search.FieldDoc;
+import org.apache.lucene.search.TotalHits;
+import org.apache.lucene.util.BytesRef;
+
+// Position after the last hit of a result page, together with everything needed to fetch the page after it:
+// the request, the page number and the total hits. It travels to clients as an opaque url-safe string,
+// so the searcher keeps no per-user paging state and any thread can continue from any cursor.
+public final class SearchCursor {
+
+    private static final int VERSION = 4;  // 2: artist drill-down, 3: typo tolerance, 4: strings of any length
+
+    private static final byte AFTER_NONE = 0;
+    private static final byte AFTER_FIELDS = 2;  // the sort values of the last FieldDoc, the score for relevance order
+
+    private static final byte VALUE_NULL = 0;
+    private static final byte VALUE_BYTES = 1;
+    private static final byte VALUE_INT = 2;
+    private static final byte VALUE_LONG = 3;
+    private static final byte VALUE_FLOAT = 4;
+    private static final byte VALUE_DOUBLE = 5;
+    private static final int MAX_VALUE_LENGTH = IndexWriter.MAX_TERM_LENGTH;
+
+    private final SearchRequest request;
+    private final int page;
+    private final FieldDoc after;
+    private final TotalHits totalHits;
+
+    public SearchCursor(SearchRequest request, int page, FieldDoc after, TotalHits totalHits) {
+        this.request = request;
+        this.page = page;
+        this.after = after;
+        this.totalHits = totalHits;
+    }
+
+    public SearchRequest getRequest() {
+        return request;
+    }
+
+    // Page that ends at this cursor, 1 for the first page
+    public int getPage() {
+        return page;
+    }
+
+    // Last hit of the page, null if the page was not full and so the last one
+    public FieldDoc getAfter() {
+        return after;
+    }
+
+    public TotalHits getTotalHits() {
+        return totalHits;
+    }
+
+    public String encode() {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(VERSION);
+            writeString(out, request.getText());
+            out.writeInt(request.getFields().size());
+            for (String field : request.getFields()) {
+                writeString(out, field);
+            }
+            out.writeBoolean(request.isSortAlphabetically());
+            out.writeBoolean(request.getArtist() != null);
+            if (request.getArtist() != null) {
+                writeString(out, request.getArtist());
+            }
+            out.writeBoolean(request.isTypoTolerant());
+            out.writeInt(page);
+            out.writeLong(totalHits.value);
+            out.writeBoolean(totalHits.relation == TotalHits.Relation.EQUAL_TO);
+            writeAfter(out, after);
+            out.flush();
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes.toByteArray());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);  // cannot happen in memory
+        }
+    }
+
+    public static SearchCursor decode(String cursor) {
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(Base64.getUrlDecoder().decode(cursor)));
+            int version = in.readByte();
+            if (version != VERSION) {
+                throw new IllegalArgumentException("Unsupported cursor version " + version);
+            }
+            String text = readString(in);
+            int fieldCount = in.readInt();
+            if (fieldCount < 0 || fieldCount > 64) {
+                throw new IllegalArgumentException("Cursor with " + fieldCount + " fields");
+            }
+            List<String> fields = new ArrayList<>();
+            for (int i = 0; i < fieldCount; i++) {
+                fields.add(readString(in));
+            }
+            boolean sortAlphabetically = in.readBoolean();
+            String artist = in.readBoolean() ? readString(in) : null;
+            boolean typoTolerant = in.readBoolean();
+            int page = in.readInt();
+            long totalHitsValue = in.readLong();
+            TotalHits.Relation relation = in.readBoolean() ? TotalHits.Relation.EQUAL_TO : TotalHits.Relation.GREATER_THAN_OR_EQUAL_TO;
+            FieldDoc after = readAfter(in);
+            return new SearchCursor(new SearchRequest(text, fields, sortAlphabetically, artist, typoTolerant), page, after, new TotalHits(totalHitsValue, relation));
+        } catch (IOException | RuntimeException e) {
+            throw new IllegalArgumentException("Malformed search cursor", e);
+        }
+    }
+
+    // Length and UTF-8 bytes: writeUTF stops at 64KB, which a pasted query can exceed
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > in.available()) {  // the whole cursor is in memory
+            throw new IllegalArgumentException("String of " + length + " bytes");
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeAfter(DataOutputStream out, FieldDoc after) throws IOException {
+        if (after == null) {
+            out.writeByte(AFTER_NONE);
+            return;
+        }
+        out.writeByte(AFTER_FIELDS);
+        out.writeInt(after.doc);
+        out.writeFloat(after.score);
+        out.writeInt(after.shardIndex);
+        out.writeInt(after.fields.length);
+        for (Object value : after.fields) {
+            writeValue(out, value);
+        }
+    }
+
+    // Whether the values fit the sort of the request is checked by the searcher
+    private static FieldDoc readAfter(DataInputStream in) throws IOException {
+        byte type = in.readByte();
+        if (type == AFTER_NONE) {
+            return null;
+        }
+        if (type != AFTER_FIELDS) {
+            throw new IllegalArgumentException("Unknown cursor position type " + type);
+        }
+        int doc = in.readInt();
+        float score = in.readFloat();
+        int shardIndex = in.readInt();
+        int valueCount = in.readInt();
+        if (valueCount < 0 || valueCount > 64) {
+            throw new IllegalArgumentException("Cursor with " + valueCount + " sort values");
+        }
+        Object[] values = new Object[valueCount];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = readValue(in);
+        }
+        return new FieldDoc(doc, score, values, shardIndex);
+    }
+
+    // Sort values are BytesRef for string sorts, or boxed numbers for numeric ones
+    private static void writeValue(DataOutputStream out, Object value) throws IOException {
+        if (value == null) {
+            out.writeByte(VALUE_NULL);
+        } else if (value instanceof BytesRef) {
+            BytesRef bytes = (BytesRef) value;
+            out.writeByte(VALUE_BYTES);
+            out.writeInt(bytes.length);
+            out.write(bytes.bytes, bytes.offset, bytes.length);
+        } else if (value instanceof Integer) {
+            out.writeByte(VALUE_INT);
+            out.writeInt((Integer) value);
+        } else if (value instanceof Long) {
+            out.writeByte(VALUE_LONG);
+            out.writeLong((Long) value);
+        } else if (value instanceof Float) {
+            out.writeByte(VALUE_FLOAT);
+            out.writeFloat((Float) value);
+        } else if (value instanceof Double) {
+            out.writeByte(VALUE_DOUBLE);
+            out.writeDouble((Double) value);
+        } else {
+            throw new IllegalArgumentException("Cannot encode sort value of type " + value.getClass().getName());
+        }
+    }
+
+    private static Object readValue(DataInputStream in) throws IOException {
+        byte type = in.readByte();
+        switch (type) {
+            case VALUE_NULL:
+                return null;
+            case VALUE_BYTES:
+                int length = in.readInt();
+                if (length < 0 || length > MAX_VALUE_LENGTH) {
+                    throw new IllegalArgumentException("Sort value of " + length + " bytes");
+                }
+                byte[] bytes = new byte[length];
+                in.readFully(bytes);
+                return new BytesRef(bytes);
+            case VALUE_INT:
+                return in.readInt();
+            case VALUE_LONG:
+                return in.readLong();
+            case VALUE_FLOAT:
+                return in.readFloat();
+            case VALUE_DOUBLE:
+                return in.readDouble();
+            default:
+                throw new IllegalArgumentException("Unknown sort value type " + type);
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package searchDocuments;
+
+import java.io.Closeable;
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Runs searches and suggestion lookups off the caller's thread and hands back futures.
+// Tasks are submitted on a channel, such as "search" or "suggest": a new task cancels the one still pending
+// on its channel, so a quick second search replaces the first instead of queueing behind it.
+// A cancelled task that has not started is skipped. One already running is left to finish without an
+// interrupt, which would close the index file channels under other searches, and its result is dropped.
+public class SearchExecutor implements Closeable {
+
+    private static final int QUEUED_TASKS_PER_THREAD = 16;
+
+    private final ExecutorService executor;
+    private final Map<String, CompletableFuture<?>> pending = new ConcurrentHashMap<>();
+
+    public SearchExecutor() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    // Used when the runtime has no virtual threads
+    public SearchExecutor(int threads) {
+        // a full queue fails the future, submit is called from threads that must not run searches themselves
+        this.executor = newExecutor(threads, new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    // A virtual thread per task on runtimes that have them (Java 21 and later), otherwise a bounded pool.
+    // Once the pool's queue is full the submitting thread runs the task itself: an HttpServer dispatcher
+    // then stops accepting connections for a while instead of dropping the one it holds.
+    public static ExecutorService newExecutor(int threads) {
+        return newExecutor(threads, new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    private static ExecutorService newExecutor(int threads, RejectedExecutionHandler whenFull) {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            AtomicInteger count = new AtomicInteger();
+            return new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(threads * QUEUED_TASKS_PER_THREAD), runnable -> {
+                        Thread thread = new Thread(runnable, "search-" + count.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }, whenFull);
+        }
+    }
+
+    public <T> CompletableFuture<T> submit(String channel, Callable<T> task) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        CompletableFuture<?> previous = pending.put(channel, future);
+        if (previous != null) {
+            previous.cancel(false);
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    if (!future.isDone()) {  // cancelled while it was queued
+                        future.complete(task.call());
+                    }
+                } catch (Throwable e) {
+                    future.completeExceptionally(e);
+                } finally {
+                    pending.remove(channel, future);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            pending.remove(channel, future);
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    // Drops the task pending on a channel, if any
+    public void cancel(String channel) {
+        CompletableFuture<?> previous = pending.remove(channel);
+        if (previous != null) {
+            previous.cancel(false);
+        }
+    }
+
+    // Waits for the running tasks, they may still hold index readers
+    @Override
+    public void close() {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package searchDocuments;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Objects;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+// What the user asked for: the query text, the fields to search, the order of the results,
+// optionally the one artist to drill down into, and whether misspelled artists and titles should still match.
+// Immutable, so it can be shared between threads and carried inside a SearchCursor.
+public final class SearchRequest {
+
+    private final String text;
+    private final SortedSet<String> fields;
+    private final boolean sortAlphabetically;
+    private final String artist;  // null for songs of every artist
+    private final boolean typoTolerant;
+
+    // An empty field set searches every indexed field
+    public SearchRequest(String text, Collection<String> fields, boolean sortAlphabetically) {
+        this(text, fields, sortAlphabetically, null);
+    }
+
+    public SearchRequest(String text, Collection<String> fields, boolean sortAlphabetically, String artist) {
+        this(text, fields, sortAlphabetically, artist, false);
+    }
+
+    public SearchRequest(String text, Collection<String> fields, boolean sortAlphabetically, String artist, boolean typoTolerant) {
+        this.text = Objects.requireNonNull(text, "text");
+        this.fields = Collections.unmodifiableSortedSet(new TreeSet<>(fields));
+        this.sortAlphabetically = sortAlphabetically;
+        this.artist = artist;
+        this.typoTolerant = typoTolerant;
+    }
+
+    // The same request restricted to the songs of one artist, as named by an ArtistFacets entry
+    public SearchRequest withArtist(String artist) {
+        return new SearchRequest(text, fields, sortAlphabetically, artist, typoTolerant);
+    }
+
+    // The same request also matching artist and song terms a few edits away from the typed ones
+    public SearchRequest withTypoTolerance(boolean typoTolerant) {
+        return new SearchRequest(text, fields, sortAlphabetically, artist, typoTolerant);
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    public SortedSet<String> getFields() {
+        return fields;
+    }
+
+    public boolean isSortAlphabetically() {
+        return sortAlphabetically;
+    }
+
+    public String getArtist() {
+        return artist;
+    }
+
+    public boolean isTypoTolerant() {
+        return typoTolerant;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof SearchRequest)) {
+            return false;
+        }
+        SearchRequest that = (SearchRequest) other;
+        return text.equals(that.text) && fields.equals(that.fields) && sortAlphabetically == that.sortAlphabetically
+                && Objects.equals(artist, that.artist) && typoTolerant == that.typoTolerant;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(text, fields, sortAlphabetically, artist, typoTolerant);
+    }
+
+    @Override
+    public String toString() {
+        return "<" + text + "> in " + fields + (artist != null ? " by " + artist : "") + (sortAlphabetically ? " alphabetically" : "")
+                + (typoTolerant ? " allowing typos" : "");
+    }
+}
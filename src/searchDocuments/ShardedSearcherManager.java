@@ -0,0 +1,179 @@
+package searchDocuments;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexCommit;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.MultiReader;
+import org.apache.lucene.index.SegmentInfos;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.ReferenceManager;
+import org.apache.lucene.search.SearcherFactory;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.store.Directory;
+
+import indexDocuments.IndexLayout;
+
+// SearcherManager over the shards of a sharded index. The searcher reads all shards as one MultiReader, so doc ids
+// are global: hits of every shard are merged into one top-k, and a cursor's doc id breaks ties between equal
+// scores or sort values the same way on every page. The shards commit one after the other and the index directory
+// last, naming their new commits: a refresh waits for it and then reopens only the shards that changed, so
+// searches never see some shards updated and others not.
+final class ShardedSearcherManager extends ReferenceManager<IndexSearcher> {
+
+    private final Directory root;
+    private final SearcherFactory searcherFactory;
+    private long rootGeneration;  // commit of the index directory the current searcher reads, guarded by the refresh lock
+
+    ShardedSearcherManager(Directory root, Directory[] shards, SearcherFactory searcherFactory) throws IOException {
+        this.root = root;
+        this.searcherFactory = searcherFactory;
+        SegmentInfos rootCommit = SegmentInfos.readLatestCommit(root);
+        long[] generations = IndexLayout.shardGenerations(rootCommit.getUserData());
+        DirectoryReader[] readers = new DirectoryReader[shards.length];
+        try {
+            for (int i = 0; i < shards.length; i++) {
+                IndexCommit commit = generations == null ? null : commit(shards[i], generations[i]);
+                // opened during an update: the next refresh catches up once the index directory is committed
+                readers[i] = commit == null ? DirectoryReader.open(shards[i]) : DirectoryReader.open(commit);
+            }
+            rootGeneration = rootCommit.getGeneration();
+            current = newSearcher(readers, null);
+        } catch (IOException | RuntimeException e) {
+            decRefWhileHandlingException(readers);
+            throw e;
+        }
+    }
+
+    // Takes over the references to the shard readers, the new reader holds its own
+    private IndexSearcher newSearcher(DirectoryReader[] shards, IndexReader previous) throws IOException {
+        ShardedReader reader = new ShardedReader(shards);
+        try {
+            return SearcherManager.getSearcher(searcherFactory, reader, previous);
+        } finally {
+            decRef(shards);  // the reader holds the shards open
+        }
+    }
+
+    // Shards are shared by the readers of successive refreshes, so references are dropped with decRef:
+    // close() would only drop the first one taken on a shard
+    private static void decRef(DirectoryReader[] shards) throws IOException {
+        IOException failure = null;
+        for (DirectoryReader shard : shards) {
+            try {
+                shard.decRef();
+            } catch (IOException e) {
+                failure = failure == null ? e : failure;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private static void decRefWhileHandlingException(DirectoryReader[] shards) {
+        for (DirectoryReader shard : shards) {
+            if (shard != null) {
+                try {
+                    shard.decRef();
+                } catch (IOException | RuntimeException e) {
+                    // already failing
+                }
+            }
+        }
+    }
+
+    // The commit of a shard with this generation, null once the shard has moved past it: shards keep only their
+    // last commit, and the next update has committed the shard but not yet the index directory
+    private static IndexCommit commit(Directory shard, long generation) throws IOException {
+        for (IndexCommit commit : DirectoryReader.listCommits(shard)) {
+            if (commit.getGeneration() == generation) {
+                return commit;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    protected IndexSearcher refreshIfNeeded(IndexSearcher referenceToRefresh) throws IOException {
+        SegmentInfos rootCommit = SegmentInfos.readLatestCommit(root);
+        if (rootCommit.getGeneration() == rootGeneration) {
+            return null;
+        }
+        IndexReader previous = referenceToRefresh.getIndexReader();
+        List<? extends IndexReader> current = ((ShardedReader) previous).getShards();
+        if (IndexLayout.shardCount(rootCommit.getUserData()) != current.size()) {
+            return null;  // rebuilt with another shard count, only a new searcher can read it
+        }
+        long[] generations = IndexLayout.shardGenerations(rootCommit.getUserData());
+        DirectoryReader[] shards = new DirectoryReader[current.size()];
+        boolean changed = false;
+        try {
+            for (int i = 0; i < shards.length; i++) {
+                DirectoryReader shard = (DirectoryReader) current.get(i);
+                IndexCommit commit = generations == null ? null : commit(shard.directory(), generations[i]);
+                if (generations != null && commit == null) {
+                    decRefWhileHandlingException(shards);
+                    return null;  // the next update is under way, its commit of the index directory is waited for
+                }
+                shards[i] = commit == null ? DirectoryReader.openIfChanged(shard) : DirectoryReader.openIfChanged(shard, commit);
+                if (shards[i] == null) {
+                    shard.incRef();
+                    shards[i] = shard;
+                } else {
+                    changed = true;
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            decRefWhileHandlingException(shards);
+            throw e;
+        }
+        if (!changed) {
+            decRef(shards);
+            rootGeneration = rootCommit.getGeneration();
+            return null;
+        }
+        IndexSearcher searcher = newSearcher(shards, previous);
+        rootGeneration = rootCommit.getGeneration();
+        return searcher;
+    }
+
+    @Override
+    protected void decRef(IndexSearcher reference) throws IOException {
+        reference.getIndexReader().decRef();
+    }
+
+    @Override
+    protected boolean tryIncRef(IndexSearcher reference) {
+        return reference.getIndexReader().tryIncRef();
+    }
+
+    @Override
+    protected int getRefCount(IndexSearcher reference) {
+        return reference.getIndexReader().getRefCount();
+    }
+
+    // All shards of one refresh, numbered so cached pages and hits can tell readers apart as they can
+    // by DirectoryReader.getVersion() on an unsharded index
+    static final class ShardedReader extends MultiReader {
+        private static final AtomicLong generations = new AtomicLong();
+
+        private final long version = generations.incrementAndGet();
+
+        ShardedReader(DirectoryReader[] shards) throws IOException {
+            super(shards, false);  // increments the references of the shards and drops them when closed
+        }
+
+        long getVersion() {
+            return version;
+        }
+
+        List<? extends IndexReader> getShards() {
+            return getSequentialSubReaders();
+        }
+    }
+
+}
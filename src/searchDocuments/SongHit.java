@@ -0,0 +1,60 @@
+package searchDocuments;
+
+// One row of a result page: just what a result list shows.
+// The full song, lyrics included, is loaded with DocumentsSearcher.getSong only when it is opened.
+public final class SongHit {
+
+    private final int docId;
+    private final long readerVersion;  // the doc id is only valid in the reader of this version
+    private final String id;
+    private final String artist;
+    private final String song;
+    private final String snippet;
+    private final String snippetHtml;
+
+    public SongHit(int docId, long readerVersion, String id, String artist, String song, String snippet, String snippetHtml) {
+        this.docId = docId;
+        this.readerVersion = readerVersion;
+        this.id = id;
+        this.artist = artist;
+        this.song = song;
+        this.snippet = snippet;
+        this.snippetHtml = snippetHtml;
+    }
+
+    public int getDocId() {
+        return docId;
+    }
+
+    public long getReaderVersion() {
+        return readerVersion;
+    }
+
+    // Key of the song that survives index updates, null for indexes built without one
+    public String getId() {
+        return id;
+    }
+
+    public String getArtist() {
+        return artist;
+    }
+
+    public String getSong() {
+        return song;
+    }
+
+    // Start of the lyrics
+    public String getSnippet() {
+        return snippet;
+    }
+
+    // Passage of the lyrics that best matches the query, or their start, as escaped HTML with the matches in <mark>
+    public String getSnippetHtml() {
+        return snippetHtml;
+    }
+
+    @Override
+    public String toString() {
+        return artist + " - " + song;
+    }
+}
@@ -0,0 +1,292 @@
+package searchDocuments;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.lucene.index.BinaryDocValues;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermState;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.BoostQuery;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ReferenceManager;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.hppc.IntIntHashMap;
+
+import indexDocuments.FieldSchema;
+import indexDocuments.NgramIndex;
+
+// Rewrites the artist and song terms of a query into the term itself or the indexed terms within a few edits
+// of it. Candidates come from the n-gram side index: a term within k edits shares all but at most
+// (GRAM + 1) * k of its n-grams, so only the terms sharing the most are fetched and their edit distance
+// computed. Unlike a FuzzyQuery, neither a term dictionary is walked nor a Levenshtein automaton built.
+final class TypoExpander {
+
+    private static final Set<String> FIELDS = Set.of(FieldSchema.ARTIST, FieldSchema.SONG);
+    private static final int MAX_NGRAM_HITS = 200;   // terms sharing the most n-grams checked per query term
+    private static final int MAX_CANDIDATES = 10;    // corrections added per query term
+    private static final float EDIT_BOOST = 0.5f;    // each edit halves the weight of a correction
+    private static final int MAX_GRAM_POSTINGS = 20_000;  // postings of the rarest n-grams read per query term
+
+    private final ReferenceManager<IndexSearcher> ngrams;
+
+    TypoExpander(ReferenceManager<IndexSearcher> ngrams) {
+        this.ngrams = ngrams;
+    }
+
+    // Edits allowed in a term of this many characters
+    static int maxEdits(int length) {
+        if (length < NgramIndex.MIN_TERM_LENGTH) {
+            return 0;
+        }
+        return length < 6 ? 1 : 2;
+    }
+
+    Query expand(Query query) throws IOException {
+        IndexSearcher searcher = ngrams.acquire();
+        try {
+            return expand(searcher, query, new Scratch());
+        } finally {
+            ngrams.release(searcher);
+        }
+    }
+
+    private Query expand(IndexSearcher searcher, Query query, Scratch scratch) throws IOException {
+        if (query instanceof TermQuery) {
+            return expandTerm(searcher, ((TermQuery) query).getTerm(), query, scratch);
+        }
+        if (query instanceof BoostQuery) {
+            BoostQuery boosted = (BoostQuery) query;
+            return new BoostQuery(expand(searcher, boosted.getQuery(), scratch), boosted.getBoost());
+        }
+        if (query instanceof BooleanQuery) {
+            BooleanQuery bool = (BooleanQuery) query;
+            BooleanQuery.Builder builder = new BooleanQuery.Builder().setMinimumNumberShouldMatch(bool.getMinimumNumberShouldMatch());
+            for (BooleanClause clause : bool) {
+                // excluded terms stay as typed
+                Query expanded = clause.getOccur() == BooleanClause.Occur.MUST_NOT ? clause.getQuery() : expand(searcher, clause.getQuery(), scratch);
+                builder.add(expanded, clause.getOccur());
+            }
+            return builder.build();
+        }
+        return query;  // phrases, prefixes and the lyrics stay exact
+    }
+
+    private Query expandTerm(IndexSearcher searcher, Term term, Query original, Scratch scratch) throws IOException {
+        String text = term.text();
+        int length = NgramIndex.length(text);
+        int maxEdits = maxEdits(length);
+        if (!FIELDS.contains(term.field()) || maxEdits == 0) {
+            return original;
+        }
+        // fewer edits first, then more shared n-grams
+        int[] typed = text.codePoints().toArray();
+        List<List<String>> byEdits = new ArrayList<>();
+        for (int edits = 0; edits <= maxEdits; edits++) {
+            byEdits.add(new ArrayList<>());
+        }
+        for (String candidate : candidates(searcher.getIndexReader(), term.field(), length, maxEdits, NgramIndex.grams(text), scratch)) {
+            int edits = editDistance(typed, candidate.codePoints().toArray(), maxEdits);
+            if (edits > 0 && edits <= maxEdits) {
+                byEdits.get(edits).add(candidate);
+            }
+        }
+
+        BooleanQuery.Builder expanded = new BooleanQuery.Builder().add(original, BooleanClause.Occur.SHOULD);
+        int added = 0;
+        float boost = 1f;
+        for (int edits = 1; edits <= maxEdits; edits++) {
+            boost *= EDIT_BOOST;
+            for (String candidate : byEdits.get(edits)) {
+                if (added == MAX_CANDIDATES) {
+                    break;
+                }
+                expanded.add(new BoostQuery(new TermQuery(new Term(term.field(), candidate)), boost), BooleanClause.Occur.SHOULD);
+                added++;
+            }
+        }
+        return added == 0 ? original : expanded.build();
+    }
+
+    // Overlap counts and candidate documents, reused by the terms of one query
+    private static final class Scratch {
+        final IntIntHashMap shared = new IntIntHashMap();
+        int[] docs = new int[16];
+    }
+
+    // An n-gram key of the side index with the number of terms holding it
+    private static final class GramKey {
+        final BytesRef key;
+        final TermState state;
+        final int docFreq;
+
+        GramKey(BytesRef key, TermState state, int docFreq) {
+            this.key = key;
+            this.state = state;
+            this.docFreq = docFreq;
+        }
+    }
+
+    // The terms of the field sharing the most n-grams with the typed one, most shared first. A candidate has
+    // one length so only matches the n-grams keyed by it. A term sharing minShared of the n n-grams holds at
+    // least one of any n - minShared + 1 of them, so only the postings of the rarest ones bring candidates in
+    // and the others are only checked for those, skipping to them: the work follows the rare n-grams,
+    // not the size of the vocabulary.
+    private static List<String> candidates(IndexReader reader, String field, int length, int maxEdits, List<String> grams, Scratch scratch) throws IOException {
+        int minShared = Math.max(1, grams.size() - (NgramIndex.GRAM + 1) * maxEdits);
+        IntIntHashMap shared = scratch.shared;
+        List<String> candidates = new ArrayList<>();
+        for (LeafReaderContext leaf : reader.leaves()) {  // a single one after a full build, more after updates
+            Terms keys = leaf.reader().terms(NgramIndex.GRAMS);
+            if (keys == null) {
+                continue;
+            }
+            Bits liveDocs = leaf.reader().getLiveDocs();  // the terms removed by updates
+            TermsEnum keysEnum = keys.iterator();
+            PostingsEnum postings = null;
+            shared.clear();
+            int visited = 0;
+            for (int candidateLength = Math.max(NgramIndex.MIN_TERM_LENGTH, length - maxEdits); candidateLength <= length + maxEdits; candidateLength++) {
+                List<GramKey> present = new ArrayList<>(grams.size());
+                for (String gram : grams) {
+                    BytesRef key = new BytesRef(NgramIndex.gramKey(field, candidateLength, gram));
+                    if (keysEnum.seekExact(key)) {
+                        present.add(new GramKey(key, keysEnum.termState(), keysEnum.docFreq()));
+                    }
+                }
+                // the n-grams no term of this length holds are the rarest of all
+                int generating = present.size() - minShared + 1;
+                if (generating <= 0) {
+                    continue;
+                }
+                present.sort(Comparator.comparingInt(gramKey -> gramKey.docFreq));
+
+                int docCount = 0;
+                for (int i = 0; i < generating && visited < MAX_GRAM_POSTINGS; i++) {
+                    GramKey gramKey = present.get(i);
+                    keysEnum.seekExact(gramKey.key, gramKey.state);
+                    postings = keysEnum.postings(postings, PostingsEnum.NONE);
+                    for (int doc = postings.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS && visited < MAX_GRAM_POSTINGS; doc = postings.nextDoc()) {
+                        visited++;
+                        if (liveDocs != null && !liveDocs.get(doc)) {
+                            continue;
+                        }
+                        if (shared.addTo(doc, 1) == 1) {
+                            scratch.docs = ArrayUtil.grow(scratch.docs, docCount + 1);
+                            scratch.docs[docCount++] = doc;
+                        }
+                    }
+                }
+                int[] docs = scratch.docs;
+                Arrays.sort(docs, 0, docCount);
+                for (int i = generating; i < present.size() && docCount > 0; i++) {
+                    GramKey gramKey = present.get(i);
+                    keysEnum.seekExact(gramKey.key, gramKey.state);
+                    postings = keysEnum.postings(postings, PostingsEnum.NONE);
+                    // skipping pays off for a few candidates, stepping through the postings for many
+                    boolean skip = docCount < gramKey.docFreq / 8;
+                    int doc = -1;
+                    for (int d = 0; d < docCount; d++) {
+                        int candidate = docs[d];
+                        if (doc < candidate) {
+                            if (skip) {
+                                doc = postings.advance(candidate);
+                            } else {
+                                do {
+                                    doc = postings.nextDoc();
+                                } while (doc < candidate);
+                            }
+                        }
+                        if (doc == DocIdSetIterator.NO_MORE_DOCS) {
+                            break;
+                        }
+                        if (doc == candidate) {
+                            shared.addTo(candidate, 1);
+                        }
+                    }
+                }
+            }
+
+            // (MAX_VALUE - shared, doc) pairs, so that sorting puts the most shared first
+            long[] matches = new long[16];
+            int matchCount = 0;
+            for (IntIntHashMap.IntIntCursor entry : shared) {
+                if (entry.value >= minShared) {
+                    matches = ArrayUtil.grow(matches, matchCount + 1);
+                    matches[matchCount++] = (long) (Integer.MAX_VALUE - entry.value) << 32 | entry.key;
+                }
+            }
+            Arrays.sort(matches, 0, matchCount);
+
+            // doc values iterate forward only: the terms are read in doc order, then put back in rank order
+            int hits = Math.min(matchCount, MAX_NGRAM_HITS);
+            for (int rank = 0; rank < hits; rank++) {
+                matches[rank] = (long) (int) matches[rank] << 32 | rank;
+            }
+            Arrays.sort(matches, 0, hits);
+            String[] terms = new String[hits];
+            BinaryDocValues values = leaf.reader().getBinaryDocValues(NgramIndex.TERM);
+            for (int i = 0; values != null && i < hits; i++) {
+                if (values.advanceExact((int) (matches[i] >>> 32))) {
+                    terms[(int) matches[i]] = values.binaryValue().utf8ToString();
+                }
+            }
+            for (String term : terms) {
+                if (term != null) {
+                    candidates.add(term);
+                }
+            }
+        }
+        return candidates;
+    }
+
+    // Insertions, deletions, substitutions and swaps of adjacent characters turning a into b,
+    // the way FuzzyQuery counts them. Stops at max + 1 once no alignment can stay within max.
+    static int editDistance(int[] a, int[] b, int max) {
+        if (Math.abs(a.length - b.length) > max) {
+            return max + 1;
+        }
+        int[] beforePrevious = new int[b.length + 1];
+        int[] previous = new int[b.length + 1];
+        int[] current = new int[b.length + 1];
+        for (int j = 0; j <= b.length; j++) {
+            previous[j] = j;
+        }
+        for (int i = 1; i <= a.length; i++) {
+            current[0] = i;
+            int rowMin = current[0];
+            for (int j = 1; j <= b.length; j++) {
+                int cost = a[i - 1] == b[j - 1] ? 0 : 1;
+                int distance = Math.min(Math.min(previous[j] + 1, current[j - 1] + 1), previous[j - 1] + cost);
+                if (i > 1 && j > 1 && a[i - 1] == b[j - 2] && a[i - 2] == b[j - 1]) {
+                    distance = Math.min(distance, beforePrevious[j - 2] + 1);
+                }
+                current[j] = distance;
+                rowMin = Math.min(rowMin, distance);
+            }
+            if (rowMin > max) {
+                return max + 1;
+            }
+            int[] recycled = beforePrevious;
+            beforePrevious = previous;
+            previous = current;
+            current = recycled;
+        }
+        return Math.min(previous[b.length], max + 1);
+    }
+}
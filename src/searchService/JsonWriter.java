@@ -0,0 +1,134 @@
+package searchService;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+// Writes JSON straight to a stream as values are added, so a response is never held in memory as a whole
+final class JsonWriter implements Closeable {
+
+    private final Writer out;
+    private final Deque<Boolean> first = new ArrayDeque<>();  // per open object or array: nothing written in it yet
+    private boolean afterName;
+
+    JsonWriter(Writer out) {
+        this.out = out;
+    }
+
+    JsonWriter beginObject() throws IOException {
+        separate();
+        out.write('{');
+        first.push(true);
+        return this;
+    }
+
+    JsonWriter endObject() throws IOException {
+        first.pop();
+        out.write('}');
+        return this;
+    }
+
+    JsonWriter beginArray() throws IOException {
+        separate();
+        out.write('[');
+        first.push(true);
+        return this;
+    }
+
+    JsonWriter endArray() throws IOException {
+        first.pop();
+        out.write(']');
+        return this;
+    }
+
+    JsonWriter name(String name) throws IOException {
+        separate();
+        string(name);
+        out.write(':');
+        afterName = true;
+        return this;
+    }
+
+    JsonWriter value(String value) throws IOException {
+        separate();
+        if (value == null) {
+            out.write("null");
+        } else {
+            string(value);
+        }
+        return this;
+    }
+
+    JsonWriter value(long value) throws IOException {
+        separate();
+        out.write(Long.toString(value));
+        return this;
+    }
+
+    JsonWriter value(boolean value) throws IOException {
+        separate();
+        out.write(value ? "true" : "false");
+        return this;
+    }
+
+    JsonWriter values(Iterable<String> values) throws IOException {
+        beginArray();
+        for (String value : values) {
+            value(value);
+        }
+        return endArray();
+    }
+
+    // A comma before every member but the first, none between a name and its value
+    private void separate() throws IOException {
+        if (afterName) {
+            afterName = false;
+            return;
+        }
+        if (!first.isEmpty()) {
+            if (!first.peek()) {
+                out.write(',');
+            }
+            first.pop();
+            first.push(false);
+        }
+    }
+
+    private void string(String text) throws IOException {
+        out.write('"');
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+            case '"':
+                out.write("\\\"");
+                break;
+            case '\\':
+                out.write("\\\\");
+                break;
+            case '\n':
+                out.write("\\n");
+                break;
+            case '\r':
+                out.write("\\r");
+                break;
+            case '\t':
+                out.write("\\t");
+                break;
+            default:
+                if (c < 0x20 || c == 0x2028 || c == 0x2029) {  // line separators break JSONP and script embedding
+                    out.write(String.format("\\u%04x", (int) c));
+                } else {
+                    out.write(c);
+                }
+            }
+        }
+        out.write('"');
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+}
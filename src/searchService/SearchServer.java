@@ -0,0 +1,280 @@
+package searchService;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.queryparser.classic.ParseException;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import metrics.LatencyHistogram;
+import metrics.Metrics;
+import searchDocuments.ArtistFacets;
+import searchDocuments.DocumentsSearcher;
+import searchDocuments.DocumentsSearcherConfig;
+import searchDocuments.QueryHistory;
+import searchDocuments.SearchExecutor;
+import searchDocuments.SearchRequest;
+import searchDocuments.SongHit;
+
+// Search over HTTP with JSON responses, for clients other than the JavaFX window. Needs no JavaFX at all.
+// Every request runs on its own virtual thread where the runtime has them (a bounded pool otherwise)
+// against one shared searcher and query history, and responses are written to the socket as they are built.
+//   GET /search?q=love&fields=artist,song&alphabetical=true   first page, recorded in the query history
+//       &artists=10                                            with the 10 artists having the most matches
+//       &artist=Queen                                          only the songs of one artist
+//       &typos=true                                            misspelled artists and songs also match
+//   GET /page?cursor=...                                       the page after the one the cursor came from
+//       &number=500                                            or any other page of the same search
+//   GET /song?id=...                                           every stored field of a song, lyrics included
+//   GET /suggest?q=lo                                          queries from the history completing the text
+//   GET /metrics                                               stage latencies, cache and segment statistics as text
+public class SearchServer implements Closeable {
+
+    private static final LatencyHistogram SEARCH_RENDER = Metrics.histogram("search_render");  // writing the response
+    private static final int WARM_UP_QUERIES = 100;
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final DocumentsSearcher searcher;
+    private final QueryHistory history;
+
+    // The searcher and history stay owned by the caller
+    public SearchServer(InetSocketAddress address, DocumentsSearcher searcher, QueryHistory history) throws IOException {
+        this.searcher = searcher;
+        this.history = history;
+        this.server = HttpServer.create(address, 0);
+        this.executor = SearchExecutor.newExecutor(Runtime.getRuntime().availableProcessors() * 4);
+        server.setExecutor(executor);
+        server.createContext("/search", exchange -> handle(exchange, this::search));
+        server.createContext("/page", exchange -> handle(exchange, this::page));
+        server.createContext("/song", exchange -> handle(exchange, this::song));
+        server.createContext("/suggest", exchange -> handle(exchange, this::suggest));
+        server.createContext("/metrics", SearchServer::metrics);
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public InetSocketAddress getAddress() {
+        return server.getAddress();
+    }
+
+    // Stops accepting requests and waits a little for the running ones
+    @Override
+    public void close() {
+        server.stop(1);
+        executor.shutdown();
+    }
+
+    // A request handler writing its response body, null if it has nothing to answer with
+    private interface Endpoint {
+        Response respond(Map<String, String> parameters) throws ParseException, IOException;
+    }
+
+    private interface Response {
+        void write(JsonWriter json) throws IOException;
+    }
+
+    // Bad client input gets a 400 before anything is sent, the body is only streamed once the answer is known
+    private static void handle(HttpExchange exchange, Endpoint endpoint) throws IOException {
+        try (exchange) {
+            if (!exchange.getRequestMethod().equals("GET")) {
+                sendError(exchange, 405, "Only GET is supported");
+                return;
+            }
+            Response response;
+            try {
+                response = endpoint.respond(parameters(exchange.getRequestURI().getRawQuery()));
+            } catch (ParseException | IllegalArgumentException e) {
+                sendError(exchange, 400, e.getMessage());
+                return;
+            } catch (IOException | RuntimeException e) {
+                e.printStackTrace();
+                sendError(exchange, 500, "Search failed");
+                return;
+            }
+            if (response == null) {
+                sendError(exchange, 404, "Not found");
+                return;
+            }
+            exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+            exchange.sendResponseHeaders(200, 0);  // chunked, the length is not known up front
+            long start = System.nanoTime();
+            JsonWriter json = new JsonWriter(new BufferedWriter(new OutputStreamWriter(exchange.getResponseBody(), StandardCharsets.UTF_8)));
+            response.write(json);
+            json.close();
+            SEARCH_RENDER.recordSince(start);
+        }
+    }
+
+    // Prometheus text format, for scrapers
+    private static void metrics(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, 0);
+            try (Writer out = new BufferedWriter(new OutputStreamWriter(exchange.getResponseBody(), StandardCharsets.UTF_8))) {
+                Metrics.writeText(out);
+            }
+        }
+    }
+
+    private static void sendError(HttpExchange exchange, int status, String message) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, 0);
+        try (JsonWriter json = new JsonWriter(new OutputStreamWriter(exchange.getResponseBody(), StandardCharsets.UTF_8))) {
+            json.beginObject().name("error").value(message).endObject();
+        }
+    }
+
+    private static Map<String, String> parameters(String rawQuery) {
+        Map<String, String> parameters = new HashMap<>();
+        if (rawQuery == null) {
+            return parameters;
+        }
+        for (String pair : rawQuery.split("&")) {
+            int equals = pair.indexOf('=');
+            String name = equals < 0 ? pair : pair.substring(0, equals);
+            String value = equals < 0 ? "" : pair.substring(equals + 1);
+            parameters.put(URLDecoder.decode(name, StandardCharsets.UTF_8), URLDecoder.decode(value, StandardCharsets.UTF_8));
+        }
+        return parameters;
+    }
+
+    private static String required(Map<String, String> parameters, String name) {
+        String value = parameters.get(name);
+        if (value == null || value.isBlank()) {
+            throw new IllegalArgumentException("Missing parameter " + name);
+        }
+        return value;
+    }
+
+    private Response search(Map<String, String> parameters) throws ParseException, IOException {
+        String text = required(parameters, "q");
+        Set<String> fields = new LinkedHashSet<>();
+        String fieldList = parameters.get("fields");
+        if (fieldList != null && !fieldList.isBlank()) {
+            fields.addAll(Arrays.asList(fieldList.split(",")));  // empty: every searchable field
+        }
+        String artists = parameters.get("artists");
+        int topArtists = artists == null || artists.isBlank() ? 0 : Integer.parseInt(artists);
+        SearchRequest request = new SearchRequest(text, fields, Boolean.parseBoolean(parameters.get("alphabetical")), parameters.get("artist"),
+                Boolean.parseBoolean(parameters.get("typos")));
+        DocumentsSearcher.SearchResult result = searcher.search(request, topArtists);
+        history.addQueryToHistory(text);
+        return json -> writeResult(json, result);
+    }
+
+    private Response page(Map<String, String> parameters) throws ParseException, IOException {
+        String cursor = required(parameters, "cursor");
+        String number = parameters.get("number");
+        DocumentsSearcher.SearchResult result = number == null || number.isBlank()
+                ? searcher.nextPage(cursor)
+                : searcher.goToPage(cursor, Integer.parseInt(number));
+        return result == null ? null : json -> writeResult(json, result);
+    }
+
+    private Response song(Map<String, String> parameters) throws IOException {
+        Document song = searcher.getSong(required(parameters, "id"));
+        if (song == null) {
+            return null;
+        }
+        return json -> {
+            json.beginObject();
+            for (IndexableField field : song.getFields()) {
+                if (field.stringValue() != null) {
+                    json.name(field.name()).value(field.stringValue());
+                }
+            }
+            json.endObject();
+        };
+    }
+
+    private Response suggest(Map<String, String> parameters) throws IOException {
+        String text = parameters.getOrDefault("q", "");
+        Iterable<String> suggestions = text.isBlank() ? Set.of() : history.getQueriesSuggestions(text);
+        return json -> json.beginObject().name("suggestions").values(suggestions).endObject();
+    }
+
+    private static void writeResult(JsonWriter json, DocumentsSearcher.SearchResult result) throws IOException {
+        SearchRequest request = result.getRequest();
+        json.beginObject();
+        json.name("query").value(request.getText());
+        json.name("fields").values(request.getFields());
+        json.name("alphabetical").value(request.isSortAlphabetically());
+        json.name("artist").value(request.getArtist());
+        json.name("typos").value(request.isTypoTolerant());
+        json.name("totalHits").value(result.totalHits.value);
+        json.name("totalHitsExact").value(result.isTotalHitsExact());  // otherwise totalHits and totalPages are lower bounds
+        json.name("page").value(result.getPage());
+        json.name("totalPages").value(result.getTotalPages());
+        json.name("keywords").values(result.getKeywords());
+        json.name("cursor").value(result.hasNextPage() ? result.getCursor() : null);  // null on the last page
+        json.name("hits").beginArray();
+        for (SongHit hit : result.getHits()) {
+            json.beginObject();
+            json.name("id").value(hit.getId());
+            json.name("artist").value(hit.getArtist());
+            json.name("song").value(hit.getSong());
+            json.name("snippet").value(hit.getSnippet());
+            json.name("snippetHtml").value(hit.getSnippetHtml());
+            json.endObject();
+        }
+        json.endArray();
+        ArtistFacets facets = result.getArtistFacets();
+        if (facets != null) {
+            json.name("artistCount").value(facets.getArtistCount());
+            json.name("artists").beginArray();
+            for (ArtistFacets.Entry entry : facets.getTopArtists()) {
+                json.beginObject().name("artist").value(entry.getArtist()).name("count").value(entry.getCount()).endObject();
+            }
+            json.endArray();
+        }
+        json.endObject();
+    }
+
+    // SearchServer <indexPath> <queryHistoryPath> [port] [searchThreads]
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: SearchServer <indexPath> <queryHistoryPath> [port] [searchThreads]");
+            System.exit(1);
+        }
+        int port = args.length > 2 ? Integer.parseInt(args[2]) : 8080;
+        // more than one thread per search only pays off while there are fewer searches than cores
+        int searchThreads = args.length > 3 ? Integer.parseInt(args[3]) : 1;
+        DocumentsSearcher searcher = new DocumentsSearcher(args[0], new DocumentsSearcherConfig()
+                .setSearchThreads(searchThreads)
+                .setPreloadExtensions(DocumentsSearcherConfig.SEARCH_FILE_EXTENSIONS));
+        QueryHistory history = new QueryHistory(args[1]);
+        // requests are served while the most searched queries warm the searcher up, see searcher_ready in /metrics
+        searcher.warmUp(history.getTopQueries(WARM_UP_QUERIES));
+        SearchServer server = new SearchServer(new InetSocketAddress(port), searcher, history);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.close();
+            try {
+                history.close();
+                searcher.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }));
+        server.start();
+        System.out.println("Searching " + args[0] + " on http://localhost:" + server.getAddress().getPort() + "/search?q=");
+    }
+}